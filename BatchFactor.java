@@ -0,0 +1,226 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Factors many numbers at once on a work-stealing pool. Every number is
+ * its own task with its own Factorisation and deadline, and results are
+ * handed on as soon as each task finishes rather than in input order.
+ */
+public class BatchFactor {
+
+    private static final boolean DEBUG = true;
+
+    private final ForkJoinPool pool;
+    private final long timeLimit; // Per number, in nanoseconds
+    private final ResultCache cache; // May be null
+
+    /**
+     * Creates a batch engine running the given number of numbers at a time.
+     */
+    public BatchFactor(int threads, long timeLimit) {
+        this(threads, timeLimit, null);
+    }
+
+    /**
+     * Creates a batch engine that skips numbers already complete in the
+     * cache, resumes partial ones and stores every result.
+     */
+    public BatchFactor(int threads, long timeLimit, ResultCache cache) {
+        pool = new ForkJoinPool(threads);
+        this.timeLimit = timeLimit;
+        this.cache = cache;
+    }
+
+    /**
+     * Factors every number and passes each result to sink as it completes.
+     * With -Dfactor.smoothBound set their smooth parts are found together
+     * first, see Factor.smoothParts().
+     * The sink is called from the pool threads but never concurrently.
+     * Returns once all numbers are done.
+     */
+    public void run(List<BigInteger> numbers, Consumer<Factorisation> sink) {
+        List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>(numbers.size());
+        BigInteger[] smooth = Factor.smoothParts(numbers);
+
+        for (int i=0; i<numbers.size(); ++i) {
+            BigInteger n = numbers.get(i);
+            BigInteger s = smooth == null ? null : smooth[i];
+            tasks.add(pool.submit(() -> {
+                Factorisation result = factor(n, s);
+                synchronized (sink) {
+                    sink.accept(result);
+                }
+            }));
+        }
+
+        for (ForkJoinTask<?> task : tasks) task.join();
+    }
+
+    /**
+     * Factors the numbers read one per line from in, reading ahead at
+     * most maxInFlight numbers beyond those finished, and passes each
+     * result to sink as it completes. Lines that are not integers above 1
+     * and numbers whose task failed go to errors with the reason. Both
+     * are called from the pool threads but never concurrently. Returns
+     * once the input is exhausted and every number is done.
+     */
+    public void stream(BufferedReader in, int maxInFlight, Consumer<Factorisation> sink,
+            BiConsumer<String, String> errors) throws IOException {
+        Semaphore slots = new Semaphore(maxInFlight);
+
+        String line;
+        while ((line = in.readLine()) != null) {
+            String input = line.trim();
+            if (input.isEmpty()) continue;
+
+            BigInteger n;
+            try {
+                n = new BigInteger(input);
+            } catch (NumberFormatException e) {
+                n = null;
+            }
+            if (n == null || n.compareTo(BigInteger.ONE) <= 0) {
+                synchronized (sink) {
+                    errors.accept(input, "not an integer above 1");
+                }
+                continue;
+            }
+
+            slots.acquireUninterruptibly();
+            BigInteger number = n;
+            try {
+                pool.execute(() -> {
+                    try {
+                        Factorisation result = factor(number, null);
+                        synchronized (sink) {
+                            sink.accept(result);
+                        }
+                    } catch (RuntimeException e) {
+                        synchronized (sink) {
+                            errors.accept(input, String.valueOf(e));
+                        }
+                    } finally {
+                        slots.release();
+                    }
+                });
+            } catch (RuntimeException e) {
+                slots.release(); // The task never ran, or the final wait would hang
+                throw e;
+            }
+        }
+
+        // Wait for the numbers still running
+        slots.acquireUninterruptibly(maxInFlight);
+        slots.release(maxInFlight);
+    }
+
+    private Factorisation factor(BigInteger n, BigInteger smooth) {
+        try {
+            return Factor.factor(n, smooth, timeLimit, cache);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Stops the pool threads.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Reads one number per line, ignoring blank lines.
+     */
+    private static List<BigInteger> readNumbers(String file) throws IOException {
+        List<BigInteger> numbers = new ArrayList<BigInteger>();
+
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty()) numbers.add(new BigInteger(line));
+            }
+        }
+
+        return numbers;
+    }
+
+    /**
+     * Factors the numbers read from a file or stdin with -j, writing one
+     * JSON line per result, and nothing else to stdout.
+     */
+    private static void streamJson(String file, int threads) throws IOException {
+        int maxInFlight = Integer.getInteger("batch.inFlight", 2 * threads);
+
+        ResultCache cache = Factor.openCache();
+        BatchFactor batch = new BatchFactor(threads, Factor.timeLimit, cache);
+        try (BufferedReader in = new BufferedReader(file == null
+                ? new InputStreamReader(System.in) : new FileReader(file))) {
+            batch.stream(in, maxInFlight, result -> System.out.println(result.toJson()),
+                    (input, error) -> System.out.println("{\"input\":" + Factorisation.jsonString(input)
+                            + ",\"error\":" + Factorisation.jsonString(error) + "}"));
+        } finally {
+            batch.shutdown();
+            if (cache != null) cache.close();
+        }
+        if (Metrics.ENABLED) System.err.println("=== Metrics: " + Metrics.summary());
+    }
+
+    /**
+     * Factors getSSN(i, 0) for i in [first, last], or every number in a
+     * file given with -f. With -j [file] numbers are streamed from the
+     * file or stdin instead, see streamJson(). The pool size is set with
+     * -Dbatch.threads=N.
+     */
+    public static void main(String[] args) throws IOException {
+        List<BigInteger> numbers = new ArrayList<BigInteger>();
+        int threads = Integer.getInteger("batch.threads", Runtime.getRuntime().availableProcessors());
+
+        // The numbers already use every core, so each one walks on one thread
+        PollardRho.setThreads(1);
+        ECM.setThreads(1);
+
+        // Tune now, not under the deadline of the first sieve while the others wait
+        SieveParams.get();
+
+        if (args.length >= 1 && args.length <= 2 && args[0].equals("-j")) {
+            streamJson(args.length == 2 ? args[1] : null, threads);
+            return;
+        } else if (args.length == 2 && args[0].equals("-f")) {
+            numbers = readNumbers(args[1]);
+        } else if (args.length == 2) {
+            int first = Integer.parseInt(args[0]);
+            int last = Integer.parseInt(args[1]);
+            for (int i=first; i<=last; ++i) numbers.add(Factor.getSSN(i, 0));
+        } else {
+            System.err.println("Usage: BatchFactor <first i> <last i> | -f <file> | -j [file]");
+            return;
+        }
+
+        long startTime = System.nanoTime();
+        ResultCache cache = Factor.openCache();
+        BatchFactor batch = new BatchFactor(threads, Factor.timeLimit, cache);
+        batch.run(numbers, result -> {
+            System.out.println(result.number() + ": " + result
+                    + (result.isComplete() ? "" : " (incomplete)"));
+            if (DEBUG) System.out.println("=== Factored in: " + Time.formatNanos(result.elapsedTime()));
+        });
+        batch.shutdown();
+        if (cache != null) cache.close();
+        if (Metrics.ENABLED) System.out.println("=== Metrics: " + Metrics.summary());
+
+        if (DEBUG) System.out.println("======= Total execution time: " + Time.formatNanos(System.nanoTime() - startTime) + " =======");
+    }
+}
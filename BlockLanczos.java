@@ -0,0 +1,591 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Finds vectors in the null space of sparse matrices over GF(2), as used
+ * for combining sieve relations into congruences of squares.
+ *
+ * The matrix is given column by column, one column per relation listing
+ * the rows (primes) that occur to an odd power. It is first filtered by
+ * removing singletons and cliques, then solved with Montgomery's block
+ * Lanczos algorithm on 64 vectors at once. Small matrices are solved by
+ * Gaussian elimination on packed long[] rows instead.
+ *
+ * Results are returned as one long per column, where bit k is set if the
+ * column takes part in the k-th dependency.
+ */
+public class BlockLanczos {
+
+    // Matrices with fewer columns than this after filtering are solved
+    // by dense Gaussian elimination
+    private static final int MIN_LANCZOS_COLS = 1000;
+
+    // Excess of columns over rows left after clique removal
+    private static final int KEEP_EXCESS = 96;
+
+    // Block Lanczos runs before giving up and using Gaussian elimination
+    private static final int MAX_ATTEMPTS = 4;
+
+    private static final Random rand = new Random();
+
+    /**
+     * A compressed sparse column matrix.
+     */
+    private static final class Sparse {
+        final int nrows, ncols;
+        final int[] colStart; // Column c is rowIdx[colStart[c] .. colStart[c + 1])
+        final int[] rowIdx;
+
+        Sparse(int nrows, int[][] columns) {
+            this.nrows = nrows;
+            ncols = columns.length;
+            colStart = new int[ncols + 1];
+            for (int c=0; c<ncols; ++c) colStart[c + 1] = colStart[c] + columns[c].length;
+            rowIdx = new int[colStart[ncols]];
+            for (int c=0; c<ncols; ++c)
+                System.arraycopy(columns[c], 0, rowIdx, colStart[c], columns[c].length);
+        }
+
+        /**
+         * y = B x, with x holding 64 column vectors.
+         */
+        void multiply(long[] x, long[] y) {
+            Arrays.fill(y, 0);
+            for (int c=0; c<ncols; ++c) {
+                long xc = x[c];
+                for (int k=colStart[c]; k<colStart[c + 1]; ++k) y[rowIdx[k]] ^= xc;
+            }
+        }
+
+        /**
+         * z = B^T y.
+         */
+        void multiplyTranspose(long[] y, long[] z) {
+            for (int c=0; c<ncols; ++c) {
+                long acc = 0;
+                for (int k=colStart[c]; k<colStart[c + 1]; ++k) acc ^= y[rowIdx[k]];
+                z[c] = acc;
+            }
+        }
+    }
+
+    /**
+     * Returns dependencies between the given columns, each column being
+     * the sorted distinct row indices of its non-zero entries.
+     */
+    public static long[] nullSpace(int[][] columns, int nrows) {
+        int ncols = columns.length;
+
+        boolean[] alive = filter(columns, nrows);
+
+        // Renumber the surviving rows and columns
+        int[] rowMap = new int[nrows];
+        Arrays.fill(rowMap, -1);
+        int liveRows = 0;
+        int liveCols = 0;
+        for (int c=0; c<ncols; ++c) {
+            if (!alive[c]) continue;
+            ++liveCols;
+            for (int r : columns[c]) {
+                if (rowMap[r] < 0) rowMap[r] = liveRows++;
+            }
+        }
+
+        int[][] reduced = new int[liveCols][];
+        int[] colMap = new int[liveCols];
+        for (int c=0, i=0; c<ncols; ++c) {
+            if (!alive[c]) continue;
+            int[] col = new int[columns[c].length];
+            for (int k=0; k<col.length; ++k) col[k] = rowMap[columns[c][k]];
+            reduced[i] = col;
+            colMap[i++] = c;
+        }
+
+        long[] deps = null;
+        if (liveCols >= MIN_LANCZOS_COLS) {
+            Sparse matrix = new Sparse(liveRows, reduced);
+            for (int i=0; i<MAX_ATTEMPTS && deps == null; ++i) deps = lanczos(matrix);
+        }
+        if (deps == null) deps = gauss(reduced, liveRows);
+
+        long[] res = new long[ncols];
+        for (int i=0; i<liveCols; ++i) res[colMap[i]] = deps[i];
+        return res;
+    }
+
+    /**
+     * Removes columns that cannot be part of a dependency, and while there
+     * are more columns than needed, cliques of columns joined by rows of
+     * weight two. Returns which columns are still in the matrix.
+     */
+    private static boolean[] filter(int[][] columns, int nrows) {
+        int ncols = columns.length;
+        boolean[] alive = new boolean[ncols];
+        Arrays.fill(alive, true);
+
+        // Columns containing each row
+        int[] weight = new int[nrows];
+        for (int[] col : columns) {
+            for (int r : col) ++weight[r];
+        }
+        int[][] rowCols = new int[nrows][];
+        for (int r=0; r<nrows; ++r) rowCols[r] = new int[weight[r]];
+        int[] fill = new int[nrows];
+        for (int c=0; c<ncols; ++c) {
+            for (int r : columns[c]) rowCols[r][fill[r]++] = c;
+        }
+
+        int liveRows = 0;
+        for (int r=0; r<nrows; ++r) {
+            if (weight[r] > 0) ++liveRows;
+        }
+        int liveCols = ncols;
+
+        // Singletons, a row in one column only means that column is useless
+        ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+        for (int r=0; r<nrows; ++r) {
+            if (weight[r] == 1) queue.add(r);
+        }
+        int[] counts = removeSingletons(queue, columns, rowCols, weight, alive);
+        liveRows -= counts[0];
+        liveCols -= counts[1];
+
+        // Cliques, columns joined by rows of weight two must be used
+        // together. Removing one column turns its partners into singletons,
+        // so the whole clique goes with it.
+        for (int r=0; r<nrows && liveCols-liveRows>KEEP_EXCESS; ++r) {
+            if (weight[r] != 2) continue;
+
+            for (int c : rowCols[r]) {
+                if (!alive[c]) continue;
+                alive[c] = false;
+                --liveCols;
+                for (int r2 : columns[c]) {
+                    if (--weight[r2] == 1) queue.add(r2);
+                    else if (weight[r2] == 0) --liveRows;
+                }
+                break;
+            }
+            counts = removeSingletons(queue, columns, rowCols, weight, alive);
+            liveRows -= counts[0];
+            liveCols -= counts[1];
+        }
+
+        return alive;
+    }
+
+    /**
+     * Repeatedly removes the column holding each queued row of weight one.
+     * Returns the number of rows and columns removed.
+     */
+    private static int[] removeSingletons(ArrayDeque<Integer> queue, int[][] columns,
+            int[][] rowCols, int[] weight, boolean[] alive) {
+        int rows = 0, cols = 0;
+
+        while (!queue.isEmpty()) {
+            int r = queue.poll();
+            if (weight[r] != 1) continue;
+
+            for (int c : rowCols[r]) {
+                if (!alive[c]) continue;
+                alive[c] = false;
+                ++cols;
+                for (int r2 : columns[c]) {
+                    if (--weight[r2] == 1) queue.add(r2);
+                    else if (weight[r2] == 0) ++rows;
+                }
+            }
+        }
+
+        return new int[] {rows, cols};
+    }
+
+    /**
+     * Montgomery's block Lanczos on A = B^T B. Starting from a random Y it
+     * solves A X = A Y, so that X - Y is in the null space of A, and then
+     * combines X - Y with the final V into vectors in the null space of B.
+     * Returns null if the iteration broke down.
+     */
+    private static long[] lanczos(Sparse b) {
+        int n = b.ncols;
+        long[] tmp = new long[b.nrows];
+
+        long[] x = new long[n];
+        long[] v0 = new long[n];
+        long[][] v = {new long[n], new long[n], new long[n]};
+        long[] vnext = new long[n];
+
+        // x = Y, v[0] = A Y
+        for (int i=0; i<n; ++i) x[i] = rand.nextLong();
+        b.multiply(x, tmp);
+        b.multiplyTranspose(tmp, v[0]);
+        System.arraycopy(v[0], 0, v0, 0, n);
+
+        long[][] winv = new long[3][64];
+        long[][] vtav = new long[2][64];
+        long[][] vta2v = new long[2][64];
+        long[] d = new long[64];
+        long[] e = new long[64];
+        long[] f = new long[64];
+        long[] f2 = new long[64];
+        int[] s0 = new int[64];
+        int[] s1 = new int[64];
+        for (int i=0; i<64; ++i) s1[i] = i;
+        int dim1 = 64;
+
+        // The iteration ends after about n / 63 steps
+        int maxIter = n / 60 + 20;
+        for (int iter=0; ; ++iter) {
+            if (iter > maxIter) return null;
+
+            b.multiply(v[0], tmp);
+            b.multiplyTranspose(tmp, vnext); // vnext = A v0
+
+            mulTranspose(v[0], vnext, vtav[0]);
+            mulTranspose(vnext, vnext, vta2v[0]);
+
+            if (isZero(vtav[0])) break;
+
+            int dim0 = invertSubmatrix(vtav[0], s0, s1, dim1, winv[0]);
+            if (dim0 == 0) return null;
+
+            long mask0 = 0;
+            for (int i=0; i<dim0; ++i) mask0 |= 1L << s0[i];
+            long mask1 = 0;
+            for (int i=0; i<dim1; ++i) mask1 |= 1L << s1[i];
+            if ((mask0 | mask1) != -1L) return null; // Some column was never used
+
+            // D = I - Winv_i (V^T A^2 V S S^T + V^T A V)
+            for (int i=0; i<64; ++i) d[i] = (vta2v[0][i] & mask0) ^ vtav[0][i];
+            mul64(winv[0], d, d);
+            for (int i=0; i<64; ++i) d[i] ^= 1L << i;
+
+            // E = -Winv_{i-1} V^T A V S S^T
+            mul64(winv[1], vtav[0], e);
+            for (int i=0; i<64; ++i) e[i] &= mask0;
+
+            // F = -Winv_{i-2} (I - V'^T A V' Winv_{i-1})
+            //     (V'^T A^2 V' S' S'^T + V'^T A V') S S^T
+            mul64(vtav[1], winv[1], f);
+            for (int i=0; i<64; ++i) f[i] ^= 1L << i;
+            mul64(winv[2], f, f);
+            for (int i=0; i<64; ++i) f2[i] = ((vta2v[1][i] & mask1) ^ vtav[1][i]) & mask0;
+            mul64(f, f2, f);
+
+            // V_{i+1} = A V S S^T + V D + V' E + V'' F
+            for (int i=0; i<n; ++i) vnext[i] &= mask0;
+            mulAccumulate(v[0], d, vnext);
+            mulAccumulate(v[1], e, vnext);
+            mulAccumulate(v[2], f, vnext);
+
+            // X += V Winv V^T v0
+            mulTranspose(v[0], v0, d);
+            mul64(winv[0], d, d);
+            mulAccumulate(v[0], d, x);
+
+            long[] t = v[2];
+            v[2] = v[1];
+            v[1] = v[0];
+            v[0] = vnext;
+            vnext = t;
+
+            System.arraycopy(winv[1], 0, winv[2], 0, 64);
+            System.arraycopy(winv[0], 0, winv[1], 0, 64);
+            System.arraycopy(vtav[0], 0, vtav[1], 0, 64);
+            System.arraycopy(vta2v[0], 0, vta2v[1], 0, 64);
+            System.arraycopy(s0, 0, s1, 0, 64);
+            dim1 = dim0;
+        }
+
+        long[] res = combine(b, x, v[0]);
+        for (long w : res) {
+            if (w != 0) return res;
+        }
+        return null;
+    }
+
+    /**
+     * Finds combinations of the 128 columns of [x | v] that B maps to zero
+     * and returns them as up to 64 vectors in the null space of B.
+     */
+    private static long[] combine(Sparse b, long[] x, long[] v) {
+        int n = b.ncols;
+        long[] bx = new long[b.nrows];
+        long[] bv = new long[b.nrows];
+        b.multiply(x, bx);
+        b.multiply(v, bv);
+
+        // Column j of B [x | v] as a bit vector over the rows, together with
+        // the combination of the original 128 columns it is made of
+        int words = (b.nrows + 63) / 64;
+        long[][] cols = new long[128][words];
+        long[][] combo = new long[128][2];
+        for (int r=0; r<b.nrows; ++r) {
+            long wx = bx[r], wv = bv[r];
+            for (int j=0; j<64; ++j) {
+                if (((wx >>> j) & 1) != 0) cols[j][r >>> 6] |= 1L << r;
+                if (((wv >>> j) & 1) != 0) cols[64 + j][r >>> 6] |= 1L << r;
+            }
+        }
+        for (int j=0; j<128; ++j) combo[j][j >>> 6] = 1L << j;
+
+        // Eliminate row by row, each pivot column is dropped afterwards
+        boolean[] pivot = new boolean[128];
+        for (int r=0; r<b.nrows; ++r) {
+            int w = r >>> 6;
+            long mask = 1L << r;
+            int p = -1;
+            for (int j=0; j<128; ++j) {
+                if (!pivot[j] && (cols[j][w] & mask) != 0) {
+                    p = j;
+                    break;
+                }
+            }
+            if (p < 0) continue;
+
+            pivot[p] = true;
+            for (int j=0; j<128; ++j) {
+                if (!pivot[j] && (cols[j][w] & mask) != 0) {
+                    for (int k=w; k<words; ++k) cols[j][k] ^= cols[p][k];
+                    combo[j][0] ^= combo[p][0];
+                    combo[j][1] ^= combo[p][1];
+                }
+            }
+        }
+
+        // Every remaining column gives a vector [x | v] c with B [x | v] c = 0
+        long[] res = new long[n];
+        int found = 0;
+        for (int j=0; j<128 && found<64; ++j) {
+            if (pivot[j]) continue;
+
+            long bit = 1L << found;
+            boolean nonZero = false;
+            for (int i=0; i<n; ++i) {
+                long parity = Long.bitCount(x[i] & combo[j][0]) + Long.bitCount(v[i] & combo[j][1]);
+                if ((parity & 1) != 0) {
+                    res[i] |= bit;
+                    nonZero = true;
+                }
+            }
+            if (nonZero) ++found;
+            else for (int i=0; i<n; ++i) res[i] &= ~bit;
+        }
+
+        // Drop any vector that is not actually in the null space
+        long[] check = new long[b.nrows];
+        b.multiply(res, check);
+        long bad = 0;
+        for (long w : check) bad |= w;
+        if (bad != 0) {
+            for (int i=0; i<n; ++i) res[i] &= ~bad;
+        }
+
+        return res;
+    }
+
+    /**
+     * Finds the largest invertible submatrix of the symmetric 64x64 matrix t,
+     * preferring columns that were not chosen in the previous iteration.
+     * The chosen columns are written to s, the inverse of the submatrix
+     * (zero elsewhere) to w. Returns the number of chosen columns.
+     */
+    private static int invertSubmatrix(long[] t, int[] s, int[] lastS, int lastDim, long[] w) {
+        long[] m0 = new long[64]; // [t | I]
+        long[] m1 = new long[64];
+        for (int i=0; i<64; ++i) {
+            m0[i] = t[i];
+            m1[i] = 1L << i;
+        }
+
+        long last = 0;
+        for (int i=0; i<lastDim; ++i) last |= 1L << lastS[i];
+        int j = 0;
+        for (int i=0; i<64; ++i) {
+            if ((last & (1L << i)) == 0) s[j++] = i;
+        }
+        for (int i=0; i<lastDim; ++i) s[j++] = lastS[i];
+
+        int dim = 0;
+        for (int i=0; i<64; ++i) {
+            long mask = 1L << s[i];
+            int ri = s[i];
+
+            // Find a pivot row for this column and put it in row s[i]
+            for (j=i; j<64; ++j) {
+                if ((m0[s[j]] & mask) != 0) {
+                    swap(m0, m1, ri, s[j]);
+                    break;
+                }
+            }
+
+            if (j < 64) {
+                for (j=0; j<64; ++j) {
+                    int rj = s[j];
+                    if (rj != ri && (m0[rj] & mask) != 0) {
+                        m0[rj] ^= m0[ri];
+                        m1[rj] ^= m1[ri];
+                    }
+                }
+                s[dim++] = s[i];
+                continue;
+            }
+
+            // No pivot, use the right half to drop this column instead
+            for (j=i; j<64; ++j) {
+                if ((m1[s[j]] & mask) != 0) {
+                    swap(m0, m1, ri, s[j]);
+                    break;
+                }
+            }
+            if (j == 64) return 0;
+
+            for (j=0; j<64; ++j) {
+                int rj = s[j];
+                if (rj != ri && (m1[rj] & mask) != 0) {
+                    m0[rj] ^= m0[ri];
+                    m1[rj] ^= m1[ri];
+                }
+            }
+            m0[ri] = 0;
+            m1[ri] = 0;
+        }
+
+        System.arraycopy(m1, 0, w, 0, 64);
+        return dim;
+    }
+
+    /**
+     * Swaps rows i and j of the 64x128 matrix [m0 | m1].
+     */
+    private static void swap(long[] m0, long[] m1, int i, int j) {
+        long t = m0[i];
+        m0[i] = m0[j];
+        m0[j] = t;
+        t = m1[i];
+        m1[i] = m1[j];
+        m1[j] = t;
+    }
+
+    /**
+     * res = x^T y for the n x 64 matrices x and y.
+     */
+    private static void mulTranspose(long[] x, long[] y, long[] res) {
+        // c[k][byte] accumulates the rows of y whose x has that byte at k
+        long[][] c = new long[8][256];
+        for (int i=0; i<x.length; ++i) {
+            long xi = x[i], yi = y[i];
+            for (int k=0; k<8; ++k) c[k][(int) (xi >>> (8 * k)) & 0xFF] ^= yi;
+        }
+
+        for (int k=0; k<8; ++k) {
+            for (int bit=0; bit<8; ++bit) {
+                long acc = 0;
+                for (int by=0; by<256; ++by) {
+                    if ((by & (1 << bit)) != 0) acc ^= c[k][by];
+                }
+                res[8 * k + bit] = acc;
+            }
+        }
+    }
+
+    /**
+     * y ^= v m for the n x 64 matrix v and 64 x 64 matrix m.
+     */
+    private static void mulAccumulate(long[] v, long[] m, long[] y) {
+        long[][] table = tables(m);
+        for (int i=0; i<v.length; ++i) y[i] ^= mulWord(v[i], table);
+    }
+
+    /**
+     * res = a b for 64 x 64 matrices, res may alias a or b.
+     */
+    private static void mul64(long[] a, long[] b, long[] res) {
+        long[][] table = tables(b);
+        for (int i=0; i<64; ++i) res[i] = mulWord(a[i], table);
+    }
+
+    /**
+     * Lookup tables for multiplying a row vector by m one byte at a time.
+     */
+    private static long[][] tables(long[] m) {
+        long[][] table = new long[8][256];
+        for (int k=0; k<8; ++k) {
+            for (int by=1; by<256; ++by) {
+                int low = Integer.numberOfTrailingZeros(by);
+                table[k][by] = table[k][by & (by - 1)] ^ m[8 * k + low];
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Row vector w times the matrix the tables were built from.
+     */
+    private static long mulWord(long w, long[][] table) {
+        long res = 0;
+        for (int k=0; k<8; ++k) res ^= table[k][(int) (w >>> (8 * k)) & 0xFF];
+        return res;
+    }
+
+    /**
+     * Returns true if every word is zero.
+     */
+    private static boolean isZero(long[] m) {
+        for (long w : m) {
+            if (w != 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Gaussian elimination on dense packed rows, one row per column of the
+     * sparse matrix followed by an identity part that tracks which of them
+     * were added together. Returns up to 64 dependencies.
+     */
+    private static long[] gauss(int[][] columns, int nrows) {
+        int rows = columns.length;
+        int words = (nrows + rows + 63) / 64;
+
+        long[][] matrix = new long[rows][words];
+        for (int r=0; r<rows; ++r) {
+            for (int col : columns[r]) matrix[r][col >>> 6] ^= 1L << col;
+            int bit = nrows + r;
+            matrix[r][bit >>> 6] |= 1L << bit;
+        }
+
+        int pivot = 0;
+        for (int col=0; col<nrows && pivot<rows; ++col) {
+            int w = col >>> 6;
+            long mask = 1L << col;
+
+            int r = pivot;
+            while (r < rows && (matrix[r][w] & mask) == 0) ++r;
+            if (r == rows) continue;
+
+            long[] tmp = matrix[r];
+            matrix[r] = matrix[pivot];
+            matrix[pivot] = tmp;
+
+            for (int k=pivot+1; k<rows; ++k) {
+                if ((matrix[k][w] & mask) != 0) {
+                    long[] row = matrix[k];
+                    for (int i=w; i<words; ++i) row[i] ^= tmp[i];
+                }
+            }
+            ++pivot;
+        }
+
+        // Rows below the pivots are zero in the matrix part
+        long[] deps = new long[rows];
+        for (int r=pivot, k=0; r<rows && k<64; ++r, ++k) {
+            long bit = 1L << k;
+            for (int c=0; c<rows; ++c) {
+                int pos = nrows + c;
+                if ((matrix[r][pos >>> 6] & (1L << pos)) != 0) deps[c] |= bit;
+            }
+        }
+        return deps;
+    }
+}
@@ -0,0 +1,299 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hands numbers out to Worker processes over TCP and collects their
+ * factorisations, so that one range can use the cores of several JVMs or
+ * machines. The protocol is one line of ASCII per message:
+ *
+ *   worker to coordinator          coordinator to worker
+ *   HELLO name                     WORK n          factor n
+ *   NEXT         ask for work      RESUME record   finish a partial result
+ *   PING         every second      WAIT            nothing now, ask again
+ *   RESULT record                  BYE             everything is done
+ *
+ * Records are as written by Factorisation.toRecord(). RESUME is sent for
+ * numbers the cache holds a partial result for, so the worker only splits
+ * the cofactors that are left.
+ *
+ * A worker that sends nothing for the heartbeat timeout, or whose
+ * connection drops, is taken as dead and its number goes back to the
+ * front of the queue for the next worker. A number that has lost
+ * MAX_ATTEMPTS workers is reported as failed instead, since it is
+ * probably what killed them. A result whose factors do not multiply back
+ * to the number, or lists a composite as prime, counts as such a loss.
+ */
+public class Coordinator {
+
+    private static final boolean DEBUG = true;
+
+    // A worker silent for this long is dead, -Dcoordinator.timeout=MS
+    private static final int HEARTBEAT_TIMEOUT = Integer.getInteger("coordinator.timeout", 5000);
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final ServerSocket server;
+    private final ResultCache cache; // May be null
+
+    private final Deque<BigInteger> pending = new ArrayDeque<BigInteger>();
+    private final Map<BigInteger, Integer> attempts = new HashMap<BigInteger, Integer>();
+    private final Map<BigInteger, Factorisation> partials = new HashMap<BigInteger, Factorisation>();
+    private int remaining; // Numbers neither finished nor failed
+
+    /**
+     * Creates a coordinator for the given numbers, listening on the given
+     * address and port, 0 for any free port.
+     */
+    public Coordinator(List<BigInteger> numbers, InetAddress address, int port, ResultCache cache)
+            throws IOException {
+        pending.addAll(numbers);
+        remaining = numbers.size();
+        this.cache = cache;
+        server = new ServerSocket(port, 50, address);
+    }
+
+    public int port() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Accepts workers until every number is finished or failed, each
+     * served on its own thread.
+     */
+    public void run() throws IOException {
+        takeCached();
+
+        // Closing the server socket from finished() ends the accept loop
+        while (!isDone()) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (SocketException e) {
+                if (isDone()) break;
+                throw e;
+            }
+            Thread thread = new Thread(() -> serve(socket), "worker " + socket.getRemoteSocketAddress());
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private synchronized boolean isDone() {
+        return remaining == 0;
+    }
+
+    /**
+     * Prints and drops the numbers the cache already holds complete, and
+     * keeps the partial results to be resumed.
+     */
+    private synchronized void takeCached() throws IOException {
+        if (cache == null) return;
+
+        for (BigInteger n : new ArrayList<BigInteger>(pending)) {
+            Factorisation result = cache.get(n);
+            if (result == null) continue;
+            if (!result.isComplete()) {
+                partials.put(n, result);
+                continue;
+            }
+            pending.remove(n);
+            print(result);
+            finished();
+        }
+    }
+
+    /**
+     * Talks to one worker until it is done or dead, then puts its
+     * unfinished number back in the queue.
+     */
+    private void serve(Socket socket) {
+        String name = socket.getRemoteSocketAddress().toString();
+        BigInteger assigned = null;
+
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII));
+             PrintWriter out = new PrintWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.US_ASCII), true)) {
+            s.setSoTimeout(HEARTBEAT_TIMEOUT);
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith("HELLO ")) {
+                    name = line.substring(6) + " " + name;
+                    if (DEBUG) System.err.println("=== Worker joined: " + name);
+                } else if (line.equals("NEXT")) {
+                    if (assigned != null) requeue(assigned, name); // Asked again without a result
+                    assigned = take();
+                    Factorisation partial = assigned == null ? null : partial(assigned);
+                    if (partial != null) {
+                        out.println("RESUME " + partial.toRecord());
+                    } else if (assigned != null) {
+                        out.println("WORK " + assigned);
+                    } else if (isDone()) {
+                        out.println("BYE");
+                        return;
+                    } else {
+                        out.println("WAIT");
+                    }
+                } else if (line.startsWith("RESULT ")) {
+                    Factorisation result = Factorisation.parseRecord(line.substring(7));
+                    if (result != null && result.number().equals(assigned)) {
+                        if (isValid(result)) {
+                            complete(result);
+                        } else {
+                            if (DEBUG) System.err.println("=== Wrong result from " + name + ": " + result);
+                            requeue(assigned, name); // Counts as a failed attempt
+                        }
+                        assigned = null;
+                    }
+                } else if (!line.equals("PING")) {
+                    if (DEBUG) System.err.println("=== Unknown message from " + name + ": " + line);
+                }
+            }
+            if (DEBUG) System.err.println("=== Worker left: " + name);
+        } catch (SocketTimeoutException e) {
+            if (DEBUG) System.err.println("=== Worker timed out: " + name);
+        } catch (IOException e) {
+            if (DEBUG) System.err.println("=== Worker lost: " + name + " (" + e.getMessage() + ")");
+        } finally {
+            if (assigned != null) requeue(assigned, name);
+        }
+    }
+
+    /**
+     * Returns the next number to hand out, or null if none is waiting.
+     */
+    private synchronized BigInteger take() {
+        BigInteger n = pending.pollFirst();
+        if (n != null) attempts.merge(n, 1, Integer::sum);
+        return n;
+    }
+
+    private synchronized Factorisation partial(BigInteger n) {
+        return partials.get(n);
+    }
+
+    /**
+     * Puts back a number whose worker died, or gives up on it.
+     */
+    private synchronized void requeue(BigInteger n, String name) {
+        if (attempts.get(n) >= MAX_ATTEMPTS) {
+            System.out.println(n + ": failed on " + MAX_ATTEMPTS + " workers");
+            finished();
+            return;
+        }
+        if (DEBUG) System.err.println("=== Reassigning " + n + " from " + name);
+        pending.addFirst(n);
+    }
+
+    /**
+     * Returns true if the primes of result to their powers times its
+     * unfactored cofactors give its number, and every prime is one.
+     */
+    static boolean isValid(Factorisation result) {
+        BigInteger n = result.number();
+        BigInteger product = BigInteger.ONE;
+        for (Map.Entry<BigInteger, Integer> factor : result.factors().entrySet()) {
+            // Bounded before pow(), the record comes off the network
+            int e = factor.getValue();
+            if (factor.getKey().compareTo(BigInteger.ONE) <= 0 || e < 1 || e > n.bitLength()) return false;
+            product = product.multiply(factor.getKey().pow(e));
+        }
+        for (BigInteger cofactor : result.unfactored()) {
+            if (cofactor.compareTo(BigInteger.ONE) <= 0) return false;
+            product = product.multiply(cofactor);
+        }
+        if (!product.equals(n)) return false;
+
+        for (BigInteger p : result.factors().keySet()) {
+            if (!MillerRabin.isProbablePrime(p)) return false;
+        }
+        return true;
+    }
+
+    private synchronized void complete(Factorisation result) throws IOException {
+        if (cache != null) cache.put(result);
+        print(result);
+        finished();
+    }
+
+    private void print(Factorisation result) {
+        System.out.println(result.number() + ": " + result + (result.isComplete() ? "" : " (incomplete)"));
+    }
+
+    private synchronized void finished() {
+        if (--remaining == 0) {
+            try {
+                server.close();
+            } catch (IOException e) {
+                // Only stops the accept loop, which is what we want
+            }
+        }
+    }
+
+    /**
+     * Reads one number per line, ignoring blank lines.
+     */
+    private static List<BigInteger> readNumbers(String file) throws IOException {
+        List<BigInteger> numbers = new ArrayList<BigInteger>();
+
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty()) numbers.add(new BigInteger(line));
+            }
+        }
+
+        return numbers;
+    }
+
+    /**
+     * Serves getSSN(i, 0) for i in [first, last], or every number in a
+     * file given with -f, to workers connecting on the given port. Only
+     * loopback connections are accepted unless -Dcoordinator.bind gives
+     * another address to listen on, such as 0.0.0.0.
+     */
+    public static void main(String[] args) throws IOException {
+        List<BigInteger> numbers = new ArrayList<BigInteger>();
+
+        if (args.length == 3 && args[1].equals("-f")) {
+            numbers = readNumbers(args[2]);
+        } else if (args.length == 3) {
+            int first = Integer.parseInt(args[1]);
+            int last = Integer.parseInt(args[2]);
+            for (int i=first; i<=last; ++i) numbers.add(Factor.getSSN(i, 0));
+        } else {
+            System.err.println("Usage: Coordinator <port> <first i> <last i> | <port> -f <file>");
+            return;
+        }
+
+        long startTime = System.nanoTime();
+        String bind = System.getProperty("coordinator.bind");
+        InetAddress address = bind == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(bind);
+        ResultCache cache = Factor.openCache();
+
+        Coordinator coordinator = new Coordinator(numbers, address, Integer.parseInt(args[0]), cache);
+        if (DEBUG) System.err.println("=== Listening on " + address.getHostAddress() + ":" + coordinator.port());
+        coordinator.run();
+        if (cache != null) cache.close();
+
+        if (DEBUG) System.out.println("======= Total execution time: " + Time.formatNanos(System.nanoTime() - startTime) + " =======");
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * The point in time after which work on a number should stop, which
+ * can also be cancelled early from any thread. Every engine takes one
+ * and polls expired() every so many iterations rather than every step,
+ * so the check is kept to a volatile read and a System.nanoTime().
+ *
+ * A deadline made with within() ends at the earlier of its own budget
+ * and its parent, and is cancelled along with the parent.
+ */
+public final class Deadline {
+
+    private final long end; // System.nanoTime() at which to stop
+    private final Deadline parent; // May be null
+    private volatile boolean cancelled;
+
+    private Deadline(long end, Deadline parent) {
+        this.end = end;
+        this.parent = parent;
+    }
+
+    /**
+     * Returns a deadline timeLimit nanoseconds from now.
+     */
+    public static Deadline after(long timeLimit) {
+        return new Deadline(System.nanoTime() + timeLimit, null);
+    }
+
+    /**
+     * Returns a deadline budget nanoseconds from now, or at this one if
+     * that is sooner, which is also cancelled when this one is.
+     */
+    public Deadline within(long budget) {
+        long now = System.nanoTime();
+        return new Deadline(end - (now + budget) > 0 ? now + budget : end, this);
+    }
+
+    /**
+     * Stops all work against this deadline and those made from it.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled || (parent != null && parent.isCancelled());
+    }
+
+    /**
+     * Returns true if work should stop, because the time is up, the
+     * deadline was cancelled or the calling thread was interrupted.
+     */
+    public boolean expired() {
+        return System.nanoTime() - end > 0
+            || isCancelled()
+            || Thread.currentThread().isInterrupted();
+    }
+
+    /**
+     * Returns the nanoseconds left, zero once expired.
+     */
+    public long remaining() {
+        return isCancelled() ? 0 : Math.max(end - System.nanoTime(), 0);
+    }
+}
@@ -0,0 +1,29 @@
+import java.math.BigInteger;
+
+/**
+ * A non-trivial divisor found by one of the factoring methods, together
+ * with the method and stage that found it, such as "p-1 stage 2".
+ */
+public class Divisor {
+
+    private final BigInteger value;
+    private final String method;
+
+    public Divisor(BigInteger value, String method) {
+        this.value = value;
+        this.method = method;
+    }
+
+    public BigInteger value() {
+        return value;
+    }
+
+    public String method() {
+        return method;
+    }
+
+    @Override
+    public String toString() {
+        return value + " (" + method + ")";
+    }
+}
@@ -0,0 +1,348 @@
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Implementation of Lenstra's elliptic curve method using Montgomery
+ * curves By^2 = x^3 + Ax^2 + x in projective (X : Z) coordinates, with
+ * curves chosen by Suyama's parametrisation.
+ */
+public class ECM {
+
+    private static final BigInteger ZERO = BigInteger.ZERO;
+    private static final BigInteger ONE  = BigInteger.ONE;
+    private static final BigInteger TWO  = BigInteger.valueOf(2);
+
+    // Stage 1 bound B1 and number of curves for factors of roughly
+    // 15, 20, 25, 30, 35 and 40 digits
+    private static final int[][] LEVELS = {
+        {2000, 25}, {11000, 90}, {50000, 300},
+        {250000, 700}, {1000000, 1800}, {3000000, 5100}
+    };
+
+    // Stage 2 bound is B2 = B2_FACTOR * B1
+    private static final int B2_FACTOR = 100;
+
+    // Giant step size in stage 2, baby steps are the j < D/2 coprime to D
+    private static final int D = 210;
+
+    // Number of primes handled between checks for timeout or cancellation
+    private static final int CHECK_INTERVAL = 1024;
+
+    // Number of curves run in parallel, -Decm.threads=N
+    private static int threads = Integer.getInteger("ecm.threads",
+            Runtime.getRuntime().availableProcessors());
+    private static ExecutorService pool;
+
+    /**
+     * Arithmetic on the x-coordinates of points of one curve.
+     */
+    private static final class Curve {
+        final Montgomery mont;
+        final long[] a24; // (A + 2) / 4 in Montgomery form
+        final long[] t1, t2, t3, t4;
+        final long[] px, pz, r0x, r0z, r1x, r1z; // Ladder registers
+
+        Curve(Montgomery mont, long[] a24) {
+            this.mont = mont;
+            this.a24 = a24;
+            t1 = mont.newElement();
+            t2 = mont.newElement();
+            t3 = mont.newElement();
+            t4 = mont.newElement();
+            px = mont.newElement();
+            pz = mont.newElement();
+            r0x = mont.newElement();
+            r0z = mont.newElement();
+            r1x = mont.newElement();
+            r1z = mont.newElement();
+        }
+
+        /**
+         * (ox : oz) = 2 * (x : z).
+         */
+        void dbl(long[] x, long[] z, long[] ox, long[] oz) {
+            mont.add(x, z, t1);
+            mont.square(t1, t1); // (x + z)^2
+            mont.subtractMod(x, z, t2);
+            mont.square(t2, t2); // (x - z)^2
+            mont.multiply(t1, t2, ox);
+            mont.subtractMod(t1, t2, t3); // 4xz
+            mont.multiply(a24, t3, t4);
+            mont.add(t4, t2, t4);
+            mont.multiply(t3, t4, oz);
+        }
+
+        /**
+         * (ox : oz) = P + Q given P - Q = (dx : dz).
+         */
+        void add(long[] x1, long[] z1, long[] x2, long[] z2,
+                long[] dx, long[] dz, long[] ox, long[] oz) {
+            mont.subtractMod(x1, z1, t1);
+            mont.add(x2, z2, t2);
+            mont.multiply(t1, t2, t1); // (x1 - z1)(x2 + z2)
+            mont.add(x1, z1, t2);
+            mont.subtractMod(x2, z2, t3);
+            mont.multiply(t2, t3, t2); // (x1 + z1)(x2 - z2)
+            mont.add(t1, t2, t3);
+            mont.square(t3, t3);
+            mont.subtractMod(t1, t2, t4);
+            mont.square(t4, t4);
+            mont.multiply(dz, t3, t3);
+            mont.multiply(dx, t4, t4);
+            mont.copy(t3, ox);
+            mont.copy(t4, oz);
+        }
+
+        /**
+         * (x : z) = k * (x : z) with the Montgomery ladder, k >= 2.
+         */
+        void multiply(long k, long[] x, long[] z) {
+            mont.copy(x, px);
+            mont.copy(z, pz);
+            mont.copy(x, r0x);
+            mont.copy(z, r0z);
+            dbl(x, z, r1x, r1z);
+
+            for (int i=62-Long.numberOfLeadingZeros(k); i>=0; --i) {
+                if (((k >>> i) & 1) == 1) {
+                    add(r0x, r0z, r1x, r1z, px, pz, r0x, r0z);
+                    dbl(r1x, r1z, r1x, r1z);
+                } else {
+                    add(r0x, r0z, r1x, r1z, px, pz, r1x, r1z);
+                    dbl(r0x, r0z, r0x, r0z);
+                }
+            }
+
+            mont.copy(r0x, x);
+            mont.copy(r0z, z);
+        }
+    }
+
+    /**
+     * Finds one factor of the given number using the elliptic curve
+     * method, running curves on all threads of the pool and raising
+     * the bounds until a factor is found. Returns ONE once the
+     * deadline has passed or was cancelled.
+     */
+    public static BigInteger ecm(BigInteger n, Deadline deadline) {
+        // Return if divisible by 2
+        if (n.mod(TWO).equals(ZERO)) return TWO;
+
+        // Tiny numbers are not worth setting up curves for
+        if (n.bitLength() < 32) return PollardRho.pollardRho(n, deadline);
+
+        for (int[] level : LEVELS) {
+            BigInteger d = runLevel(n, level[0], level[1], deadline);
+            if (d != null) return d;
+            if (deadline.expired()) return ONE;
+        }
+
+        // Keep running curves at the highest level
+        int[] last = LEVELS[LEVELS.length - 1];
+        for (;;) {
+            BigInteger d = runLevel(n, last[0], last[1], deadline);
+            if (d != null) return d;
+            if (deadline.expired()) return ONE;
+        }
+    }
+
+    /**
+     * Sets the number of curves run in parallel by ecm().
+     */
+    public static synchronized void setThreads(int numThreads) {
+        if (numThreads < 1)
+            throw new IllegalArgumentException("Need at least one thread: " + numThreads);
+
+        threads = numThreads;
+        if (pool != null) pool.shutdownNow();
+        pool = null;
+    }
+
+    /**
+     * Returns the curve pool, creating it on first use.
+     */
+    private static synchronized ExecutorService pool() {
+        if (pool == null) {
+            pool = Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "ecm-curve");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return pool;
+    }
+
+    /**
+     * Runs the given number of curves with bound b1 split over the pool,
+     * or on the calling thread with one thread. Returns a non-trivial
+     * divisor of n, or null if none was found.
+     */
+    private static BigInteger runLevel(BigInteger n, int b1, int curves, Deadline deadline) {
+        long b2 = (long) b1 * B2_FACTOR;
+        Primes.ensure(b2 + D);
+
+        int tasks = threads;
+        if (tasks <= 1) return runCurves(n, b1, b2, curves, deadline); // On this thread, so callers run side by side
+
+        int curvesPerTask = (curves + tasks - 1) / tasks;
+        ExecutorCompletionService<BigInteger> ecs = new ExecutorCompletionService<BigInteger>(pool());
+        List<Future<BigInteger>> futures = new ArrayList<Future<BigInteger>>(tasks);
+
+        for (int i=0; i<tasks; ++i) futures.add(ecs.submit(() -> runCurves(n, b1, b2, curvesPerTask, deadline)));
+
+        try {
+            for (int i=0; i<tasks; ++i) {
+                BigInteger d = ecs.take().get();
+                if (d != null) return d;
+            }
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("ECM curve failed for " + n, e.getCause());
+        } finally {
+            for (Future<BigInteger> f : futures) f.cancel(true);
+        }
+    }
+
+    /**
+     * Runs up to the given number of curves one after another. Returns a
+     * non-trivial divisor of n, or null if none was found.
+     */
+    private static BigInteger runCurves(BigInteger n, int b1, long b2, int curves, Deadline deadline) {
+        Random rand = ThreadLocalRandom.current();
+        for (int c=0; c<curves && !deadline.expired(); ++c) {
+            BigInteger d = curve(n, b1, b2, rand, deadline);
+            if (d != null) return d;
+        }
+        return null;
+    }
+
+    /**
+     * Runs stage 1 and stage 2 on one random curve. Returns a non-trivial
+     * divisor of n, or null if the curve did not find one.
+     */
+    private static BigInteger curve(BigInteger n, int b1, long b2, Random rand, Deadline deadline) {
+        // Suyama: sigma in [6, n - 1], u = sigma^2 - 5, v = 4 * sigma
+        BigInteger sigma = new BigInteger(n.bitLength(), rand).mod(n.subtract(BigInteger.valueOf(6)))
+                .add(BigInteger.valueOf(6));
+        BigInteger u = sigma.multiply(sigma).subtract(BigInteger.valueOf(5)).mod(n);
+        BigInteger v = sigma.shiftLeft(2).mod(n);
+        BigInteger x0 = u.modPow(BigInteger.valueOf(3), n);
+        BigInteger z0 = v.modPow(BigInteger.valueOf(3), n);
+
+        // (A + 2) / 4 = (v - u)^3 (3u + v) / (16 u^3 v)
+        BigInteger num = v.subtract(u).modPow(BigInteger.valueOf(3), n)
+                .multiply(u.multiply(BigInteger.valueOf(3)).add(v)).mod(n);
+        BigInteger den = x0.multiply(v).shiftLeft(4).mod(n);
+        BigInteger g = Maths.gcd(den, n);
+        if (!g.equals(ONE)) return g.equals(n) ? null : g; // Lucky, or a bad sigma
+
+        Montgomery mont = new Montgomery(n);
+        long[] a24 = mont.newElement();
+        mont.toMontgomery(num.multiply(den.modInverse(n)), a24);
+        Curve curve = new Curve(mont, a24);
+
+        long[] x = mont.newElement();
+        long[] z = mont.newElement();
+        mont.toMontgomery(x0, x);
+        mont.toMontgomery(z0, z);
+
+        // Stage 1, one ladder per prime for every power of it below b1
+        int count = 0;
+        for (int p = 2; p <= b1; p = Primes.nextPrime(p)) {
+            for (long q = p; q <= b1; q *= p) curve.multiply(p, x, z);
+            if (++count % CHECK_INTERVAL == 0 && deadline.expired()) return null;
+        }
+
+        g = Maths.gcd(mont.toBigInteger(z), n);
+        if (g.equals(n)) return null;
+        if (!g.equals(ONE)) return g;
+
+        g = stage2(curve, x, z, b1, b2, deadline);
+        if (g == null || g.equals(ONE) || g.equals(n)) return null;
+        return g;
+    }
+
+    /**
+     * Baby-step giant-step stage 2. For each prime b1 < q <= b2 written as
+     * q = vD +- j, the product of x(vDQ) z(jQ) - x(jQ) z(vDQ) is
+     * accumulated, which vanishes mod p exactly when vDQ = +-jQ on the
+     * curve mod p. Returns gcd of the product with n, or null if stopped.
+     */
+    private static BigInteger stage2(Curve curve, long[] qx, long[] qz, int b1, long b2,
+            Deadline deadline) {
+        Montgomery mont = curve.mont;
+
+        // Baby steps jQ for odd j < D/2 via (j + 2)Q = jQ + 2Q, diff (j - 2)Q
+        int half = D / 2;
+        long[][] bx = new long[half + 2][];
+        long[][] bz = new long[half + 2][];
+        long[] q2x = mont.newElement();
+        long[] q2z = mont.newElement();
+        curve.dbl(qx, qz, q2x, q2z);
+        bx[1] = qx.clone();
+        bz[1] = qz.clone();
+        bx[3] = mont.newElement();
+        bz[3] = mont.newElement();
+        curve.add(qx, qz, q2x, q2z, qx, qz, bx[3], bz[3]);
+        for (int j=5; j<=half; j+=2) {
+            bx[j] = mont.newElement();
+            bz[j] = mont.newElement();
+            curve.add(bx[j - 2], bz[j - 2], q2x, q2z, bx[j - 4], bz[j - 4], bx[j], bz[j]);
+        }
+
+        // Giant steps vDQ, starting at v0 = max(b1 / D, 1)
+        long v0 = Math.max(b1 / D, 1);
+        long[] gx = qx.clone();
+        long[] gz = qz.clone();
+        curve.multiply(D, gx, gz);
+        long[] vx = qx.clone();
+        long[] vz = qz.clone();
+        curve.multiply(v0 * D, vx, vz);
+        long[] wx = qx.clone(); // (v + 1)DQ
+        long[] wz = qz.clone();
+        curve.multiply((v0 + 1) * D, wx, wz);
+
+        long[] acc = mont.newElement();
+        long[] s = mont.newElement();
+        long[] t = mont.newElement();
+        long[] nx = mont.newElement();
+        long[] nz = mont.newElement();
+        mont.toMontgomery(ONE, acc);
+
+        for (long v=v0; v*D-half<=b2; ++v) {
+            long base = v * D;
+            for (int j=1; j<half; j+=2) {
+                if (j % 3 == 0 || j % 5 == 0 || j % 7 == 0) continue; // gcd(j, D) > 1
+                if (!Primes.isPrime((int) (base + j)) && !Primes.isPrime((int) (base - j))) continue;
+                if (base - j <= b1 && base + j <= b1) continue;
+
+                mont.multiply(vx, bz[j], s);
+                mont.multiply(bx[j], vz, t);
+                mont.subtractMod(s, t, s);
+                mont.multiply(acc, s, acc);
+            }
+
+            // Step to (v + 1)DQ and (v + 2)DQ
+            curve.add(wx, wz, gx, gz, vx, vz, nx, nz);
+            mont.copy(wx, vx);
+            mont.copy(wz, vz);
+            mont.copy(nx, wx);
+            mont.copy(nz, wz);
+
+            if (v % CHECK_INTERVAL == 0 && deadline.expired()) return null;
+        }
+
+        return Maths.gcd(mont.toBigInteger(acc), mont.modulus());
+    }
+}
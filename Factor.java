@@ -1,6 +1,13 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.function.IntConsumer;
 
 /**
  * Class for factoring numbers using various algorithms.
@@ -14,6 +21,19 @@ public class Factor {
     private static final BigInteger ZERO = BigInteger.ZERO;
     private static final BigInteger ONE  = BigInteger.ONE;
 
+    // Primes up to this bound are found by trial division, -Dfactor.trialBound=N.
+    // At least 2, as the later stages work in Montgomery form and need odd numbers
+    private static final int TRIAL_BOUND = Math.max(2, Integer.getInteger("factor.trialBound", 10000));
+
+    // Methods used to split composites, see Strategy
+    private static final Strategy STRATEGY = loadStrategy();
+
+    // Bound of the batch smoothness test on ranges, -Dfactor.smoothBound=N, off if unset
+    public static final int SMOOTH_BOUND = Integer.getInteger("factor.smoothBound", 0);
+
+    // Directory of the persistent result store, -Dfactor.cache=DIR, off if unset
+    private static final String CACHE_DIR = System.getProperty("factor.cache");
+
     private static final int J_FACTOR = 0; // 'j' value to use when factoring
     private static int NUM_NUMBERS    = 100; // The number of number to factorise
     private static int I_START        = 1; // The number to start factorising from
@@ -22,9 +42,15 @@ public class Factor {
     // public static final long timeLimit = 43200000000000L; // Max 12 hrs factoring time per number
     // public static final long timeLimit = 21600000000000L; // Max 6 hrs factoring time per number
     // public static final long timeLimit = 5000000000L; // Max 5 s factoring time per number
-    public static long startTime, prevTime;
+    public static long startTime;
 
-    private static TreeMap<BigInteger, Integer> factors = new TreeMap<BigInteger, Integer>();
+    private static Strategy loadStrategy() {
+        try {
+            return Strategy.load();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read the factoring strategy", e);
+        }
+    }
 
     /**
      * Returns SSN * 10^(60 + j) + i.
@@ -35,97 +61,225 @@ public class Factor {
     }
 
     /**
-     * Factorises the given number and prints the results.
+     * Factorises the given number, giving up after timeLimit nanoseconds.
+     * All state lives in the returned Factorisation, so this may be
+     * called from several threads at once.
      */
-    public static void factor(BigInteger n) {
-        // Quit early if too much time has been spent on the number
-        if (System.nanoTime() - prevTime > timeLimit) {
-            System.out.println("====== TIME LIMIT EXCEEDED ======");
-            return;
+    public static Factorisation factor(BigInteger n, long timeLimit) {
+        return factor(n, null, Deadline.after(timeLimit), false);
+    }
+
+    /**
+     * Factorises the given number until the deadline passes or is
+     * cancelled, which may be done from another thread. Cofactors still
+     * composite by then are listed in Factorisation.unfactored().
+     */
+    public static Factorisation factor(BigInteger n, Deadline deadline) {
+        return factor(n, null, deadline, false);
+    }
+
+    /**
+     * Factorises the given number, printing each prime as it is found
+     * if echo is set. smooth is the part of n made of primes up to
+     * SMOOTH_BOUND, see smoothParts(), or null if not known.
+     */
+    private static Factorisation factor(BigInteger n, BigInteger smooth, Deadline deadline, boolean echo) {
+        Factorisation result = new Factorisation(n, deadline);
+        IntConsumer trial = p -> {
+            result.add(BigInteger.valueOf(p), "trial");
+            if (echo) System.out.println("= " + p); // Print for redundancy
+        };
+
+        if (smooth == null) {
+            // Strip the small primes first, they need no primality test
+            n = Primes.trialDivide(n, TRIAL_BOUND, trial);
+            split(n, "trial", new BitSet(), 1, result, echo); // What is left was split off by trial division
+        } else {
+            // The rest has no prime up to SMOOTH_BOUND, so only the smooth part is trial divided
+            BigInteger rest = n.divide(smooth);
+            split(Primes.trialDivide(smooth, TRIAL_BOUND, trial), "batch gcd", new BitSet(), 1, result, echo);
+            split(rest, "batch gcd", new BitSet(), 1, result, echo);
         }
+        result.finish();
+        return result;
+    }
 
-        if (n.equals(ONE)) return;
+    /**
+     * Returns the part of each number made of primes up to SMOOTH_BOUND
+     * with one batch test for all of them, see ProductTree, or null if
+     * the test is turned off.
+     */
+    public static BigInteger[] smoothParts(List<BigInteger> numbers) {
+        if (SMOOTH_BOUND <= TRIAL_BOUND) return null;
+        return ProductTree.smoothParts(numbers.toArray(new BigInteger[0]), SMOOTH_BOUND);
+    }
+
+    /**
+     * Continues an incomplete factorisation by splitting its unfactored
+     * cofactors, giving up after timeLimit nanoseconds.
+     */
+    public static Factorisation resume(Factorisation partial, long timeLimit) {
+        return resume(partial, timeLimit, false);
+    }
 
-        if (MillerRabin.isProbablePrime(n)) {
-            // if (DEBUG) {
-            //     long elapsedTime = System.nanoTime() - prevTime;
-            //     System.out.println("(" + Time.formatNanos(elapsedTime) + ")\t" + n);
-            // }
+    /**
+     * Continues an incomplete factorisation, printing each prime as it is
+     * found if echo is set.
+     */
+    private static Factorisation resume(Factorisation partial, long timeLimit, boolean echo) {
+        Factorisation result = new Factorisation(partial.number(), timeLimit);
+        for (Map.Entry<BigInteger, Integer> entry : partial.factors().entrySet())
+            result.add(entry.getKey(), entry.getValue(), partial.method(entry.getKey()));
 
-            // Increment the factor count
-            if (factors.containsKey(n)) {
-                int count = factors.get(n);
-                factors.put(n, ++count);
-            } else
-                factors.put(n, 1);
+        // An unfinished power r^k left r k times, split it once
+        Map<BigInteger, Integer> cofactors = new TreeMap<BigInteger, Integer>();
+        for (BigInteger cofactor : partial.unfactored()) cofactors.merge(cofactor, 1, Integer::sum);
+        for (Map.Entry<BigInteger, Integer> entry : cofactors.entrySet())
+            split(entry.getKey(), "resume", new BitSet(), entry.getValue(), result, echo);
+        result.finish();
+        return result;
+    }
 
-            if(DEBUG) System.out.println("= " + n); // Print for redundancy
-            return;
+    /**
+     * Factorises n unless the cache already holds a complete result, and
+     * resumes from the stored cofactors if it holds a partial one. The
+     * outcome is written back to the cache. A null cache factors directly.
+     */
+    public static Factorisation factor(BigInteger n, long timeLimit, ResultCache cache) throws IOException {
+        return factor(n, null, timeLimit, cache, false);
+    }
+
+    /**
+     * As factor(n, timeLimit, cache), given the part of n made of primes
+     * up to SMOOTH_BOUND from smoothParts(), or null if not known.
+     */
+    public static Factorisation factor(BigInteger n, BigInteger smooth, long timeLimit, ResultCache cache)
+            throws IOException {
+        return factor(n, smooth, timeLimit, cache, false);
+    }
+
+    private static Factorisation factor(BigInteger n, BigInteger smooth, long timeLimit, ResultCache cache,
+            boolean echo) throws IOException {
+        if (cache == null) return factor(n, smooth, Deadline.after(timeLimit), echo);
+
+        Factorisation result = cache.get(n);
+        if (result != null && result.isComplete()) {
+            if (echo) System.out.println("=== Found in cache");
+            return result;
+        }
+
+        if (result != null) {
+            if (echo) System.out.println("=== Resuming " + result.unfactored().size() + " cofactor(s) from cache");
+            result = resume(result, timeLimit, echo);
+        } else {
+            result = factor(n, smooth, Deadline.after(timeLimit), echo);
         }
 
-        BigInteger divisor = PollardRho.pollardRho(n);
-        // BigInteger divisor = QuadraticSieve.quadraticSieve(n);
-        factor(divisor);
-        factor(n.divide(divisor));
+        cache.put(result);
+        return result;
+    }
+
+    /**
+     * Opens the cache named by -Dfactor.cache, or returns null if unset.
+     */
+    public static ResultCache openCache() throws IOException {
+        return CACHE_DIR == null ? null : new ResultCache(new File(CACHE_DIR));
     }
 
     /**
-     * Prints the map of factors and their frequencies in ascending order.
+     * Recursively splits a number without prime factors up to TRIAL_BOUND,
+     * which occurs power times in the number being factored. method is how
+     * n was split off, and done the strategy stages that need not be
+     * repeated on n.
      */
-    private static void printFactors() {
-        StringBuilder sb = new StringBuilder();
+    private static void split(BigInteger n, String method, BitSet done, int power,
+            Factorisation result, boolean echo) {
+        if (n.equals(ONE)) return;
+
+        // Quit early if too much time has been spent on the number
+        if (result.expired()) {
+            if (echo) System.out.println("====== TIME LIMIT EXCEEDED ======");
+            for (int i=0; i<power; ++i) result.addUnfactored(n);
+            return;
+        }
 
-        for (Map.Entry<BigInteger, Integer> entry : factors.entrySet()) {
-            BigInteger key = entry.getKey();
-            Integer value = entry.getValue();
+        // Below TRIAL_BOUND^2 a number without small factors is prime
+        BigInteger bound = BigInteger.valueOf(TRIAL_BOUND);
+        if (n.compareTo(bound.multiply(bound)) < 0 || MillerRabin.isProbablePrime(n)) {
+            result.add(n, power, method);
 
-            // Print factor followed by number of occurrences as
-            // per assignment
-            sb.append(key + " " + value + " ");
+            if (echo) System.out.println("= " + n + (power > 1 ? "^" + power : "")); // Print for redundancy
+            if (echo && DEBUG && method != null) System.out.println("=== Found by " + method);
+            return;
         }
 
-        sb.setLength(Math.max(sb.length() - 1, 0)); // Remove trailing space
-        System.out.println("======== ALL FACTORS ========");
-        System.out.println(sb);
+        // Rho and the sieve do badly on powers, and the root is cheap
+        int k = Maths.perfectPower(n);
+        if (k > 1) {
+            BigInteger r = Maths.root(n, k);
+            if (echo && DEBUG) System.out.println("=== Perfect power: " + r + "^" + k);
+            split(r, "power", done, power * k, result, echo);
+            return;
+        }
 
-        if (DEBUG) {
-            long elapsedTime = System.nanoTime() - prevTime;
-            System.out.println("=== Factored in: " + Time.formatNanos(elapsedTime));
+        Divisor divisor = STRATEGY.split(n, result.deadline(), done);
+        if (divisor == null) {
+            if (echo) System.out.println("====== TIME LIMIT EXCEEDED ======");
+            for (int i=0; i<power; ++i) result.addUnfactored(n);
+            return;
         }
+
+        BigInteger d = divisor.value();
+        split(d, divisor.method(), (BitSet) done.clone(), power, result, echo);
+        split(n.divide(d), divisor.method(), done, power, result, echo);
+    }
+
+    /**
+     * Prints the factors and their frequencies in ascending order.
+     */
+    private static void printFactors(Factorisation result) {
+        System.out.println("======== ALL FACTORS ========");
+        System.out.println(result);
+
+        if (DEBUG) System.out.println("=== Factored in: " + Time.formatNanos(result.elapsedTime()));
     }
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         if (DEBUG) System.out.println("================ PROGRAM START ================");
+        SieveParams.get(); // Tune now, not under the deadline of the first sieve
         startTime = System.nanoTime();
-        prevTime = startTime; // Initially same time as first
         BigInteger n;
         int j = J_FACTOR;
 
         System.out.println(SSN + " " + j); // As per assignment
+        if (DEBUG) System.out.println("=== Strategy: " + STRATEGY);
+        ResultCache cache = openCache();
 
         if (args.length == 1) {
             n = new BigInteger(args[0]);
-            factor(n);
-            printFactors();
+            printFactors(factor(n, null, timeLimit, cache, DEBUG));
         } else if(args.length == 2) {
             // Read which range of numbers should be factored
             I_START = Integer.parseInt(args[0]);
             NUM_NUMBERS = Integer.parseInt(args[1]);
 
+            List<BigInteger> numbers = new ArrayList<BigInteger>();
+            for (int i=I_START; i<=NUM_NUMBERS; ++i) numbers.add(getSSN(i, j));
+            BigInteger[] smooth = smoothParts(numbers);
+
             // Factor all the numbers
             for (int i=I_START; i<=NUM_NUMBERS; ++i) {
-                n = getSSN(i, j);
+                n = numbers.get(i - I_START);
                 if(DEBUG) System.out.println("=== Now factoring: " + n + " (i = " + i + ")");
-                factor(n);
-                printFactors();
+                printFactors(factor(n, smooth == null ? null : smooth[i - I_START], timeLimit, cache, DEBUG));
 
-                factors = new TreeMap<BigInteger, Integer>(); // Remove previous factors
-                prevTime = System.nanoTime(); // Reset time for next number
                 if(DEBUG) System.out.println("================================");
             }
         } else {
             System.err.println("Missing arguments.");
         }
+        if (cache != null) cache.close();
+        if (Metrics.ENABLED) System.out.println("=== Metrics: " + Metrics.summary());
 
         if (DEBUG) System.out.println("======= Total execution time: " + Time.formatNanos(System.nanoTime() - startTime) + " =======");
         if (DEBUG) System.out.println("================= PROGRAM END =================");
@@ -0,0 +1,253 @@
+import java.math.BigInteger;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The prime factors found for one number together with the deadline for
+ * finding them. Each number being factored has its own instance, so
+ * several numbers can be factored at the same time.
+ */
+public class Factorisation {
+
+    private final BigInteger n;
+    private final long startTime;
+    private final Deadline deadline;
+
+    private final TreeMap<BigInteger, Integer> factors = new TreeMap<BigInteger, Integer>();
+    private final Map<BigInteger, String> methods = new TreeMap<BigInteger, String>();
+    private final List<BigInteger> unfactored = new ArrayList<BigInteger>();
+    private long elapsedTime;
+
+    /**
+     * Starts the factorisation of n, allowing timeLimit nanoseconds for it.
+     */
+    public Factorisation(BigInteger n, long timeLimit) {
+        this(n, Deadline.after(timeLimit));
+    }
+
+    /**
+     * Starts the factorisation of n, giving up at the given deadline or
+     * when it is cancelled.
+     */
+    public Factorisation(BigInteger n, Deadline deadline) {
+        this.n = n;
+        this.deadline = deadline;
+        startTime = System.nanoTime();
+    }
+
+    /**
+     * Increments the count of the given prime factor.
+     */
+    public void add(BigInteger p) {
+        add(p, 1);
+    }
+
+    /**
+     * Adds count occurrences of the given prime factor.
+     */
+    public void add(BigInteger p, int count) {
+        factors.merge(p, count, Integer::sum);
+    }
+
+    /**
+     * Increments the count of the given prime factor and records the
+     * method that split it off, unless one is already known.
+     */
+    public void add(BigInteger p, String method) {
+        add(p, 1, method);
+    }
+
+    /**
+     * Adds count occurrences of the given prime factor found by method.
+     */
+    public void add(BigInteger p, int count, String method) {
+        add(p, count);
+        if (method != null) methods.putIfAbsent(p, method);
+    }
+
+    /**
+     * Returns true if the deadline has passed or was cancelled.
+     */
+    public boolean expired() {
+        return deadline.expired();
+    }
+
+    /**
+     * Records a cofactor that could not be split before the deadline.
+     */
+    public void addUnfactored(BigInteger cofactor) {
+        unfactored.add(cofactor);
+    }
+
+    /**
+     * Records the time spent once factoring has stopped.
+     */
+    public void finish() {
+        elapsedTime = System.nanoTime() - startTime;
+    }
+
+    public BigInteger number() {
+        return n;
+    }
+
+    public Deadline deadline() {
+        return deadline;
+    }
+
+    public boolean isComplete() {
+        return unfactored.isEmpty();
+    }
+
+    public long elapsedTime() {
+        return elapsedTime;
+    }
+
+    /**
+     * Returns the factors and their number of occurrences in ascending order.
+     */
+    public TreeMap<BigInteger, Integer> factors() {
+        return factors;
+    }
+
+    /**
+     * Returns the method that found the given prime factor, for example
+     * "trial" or "p-1 stage 2", or null if it is not known.
+     */
+    public String method(BigInteger p) {
+        return methods.get(p);
+    }
+
+    /**
+     * Returns the composite cofactors left when the deadline passed.
+     */
+    public List<BigInteger> unfactored() {
+        return unfactored;
+    }
+
+    /**
+     * Returns the result as one line of JSON, with the numbers as strings
+     * since they do not fit a double, for example
+     * {"n":"1207","factors":[{"p":"17","e":1,"method":"trial"},...],
+     * "unfactored":[],"complete":true,"elapsedNs":51200}
+     * elapsedNs is the time spent in this run, 0 for a result served
+     * whole from ResultCache.
+     */
+    public String toJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"n\":\"").append(n).append("\",\"factors\":[");
+
+        String sep = "";
+        for (Map.Entry<BigInteger, Integer> entry : factors.entrySet()) {
+            String method = methods.get(entry.getKey());
+            sb.append(sep).append("{\"p\":\"").append(entry.getKey())
+              .append("\",\"e\":").append(entry.getValue())
+              .append(",\"method\":").append(method == null ? "null" : jsonString(method)).append('}');
+            sep = ",";
+        }
+
+        sb.append("],\"unfactored\":[");
+        sep = "";
+        for (BigInteger cofactor : unfactored) {
+            sb.append(sep).append('"').append(cofactor).append('"');
+            sep = ",";
+        }
+
+        sb.append("],\"complete\":").append(isComplete())
+          .append(",\"elapsedNs\":").append(elapsedTime).append('}');
+        return sb.toString();
+    }
+
+    /**
+     * Returns the result as one line of text, the form kept by ResultCache
+     * and sent by Worker:
+     *
+     *   n C p^e:m p^e:m ...             for a complete factorisation
+     *   n P p^e:m p^e:m ... / c c ...   for one that ran out of time, c
+     *                                   being the cofactors still to be split
+     *
+     * m is the method that found p, URL-encoded since it may hold spaces,
+     * and left out with its colon when not known. The elapsed time is not
+     * kept.
+     */
+    public String toRecord() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(n).append(isComplete() ? " C" : " P");
+        for (Map.Entry<BigInteger, Integer> entry : factors.entrySet()) {
+            sb.append(' ').append(entry.getKey()).append('^').append(entry.getValue());
+            String method = methods.get(entry.getKey());
+            if (method != null) sb.append(':').append(URLEncoder.encode(method, StandardCharsets.UTF_8));
+        }
+        if (!isComplete()) {
+            sb.append(" /");
+            for (BigInteger c : unfactored) sb.append(' ').append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Parses a line written by toRecord(), or returns null if it is
+     * malformed. Records from before methods were kept parse with no
+     * methods, and the elapsed time of the result is 0.
+     */
+    public static Factorisation parseRecord(String line) {
+        String[] fields = line.trim().split(" ");
+        if (fields.length < 2) return null;
+
+        try {
+            Factorisation result = new Factorisation(new BigInteger(fields[0]), 0);
+            boolean cofactors = false;
+            for (int i=2; i<fields.length; ++i) {
+                if (fields[i].equals("/")) {
+                    cofactors = true;
+                } else if (cofactors) {
+                    result.addUnfactored(new BigInteger(fields[i]));
+                } else {
+                    int caret = fields[i].indexOf('^');
+                    int colon = fields[i].indexOf(':', caret);
+                    int end = colon < 0 ? fields[i].length() : colon;
+                    String method = colon < 0 ? null
+                            : URLDecoder.decode(fields[i].substring(colon + 1), StandardCharsets.UTF_8);
+                    result.add(new BigInteger(fields[i].substring(0, caret)),
+                            Integer.parseInt(fields[i].substring(caret + 1, end)), method);
+                }
+            }
+            return result;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns s as a quoted JSON string.
+     */
+    static String jsonString(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i=0; i<s.length(); ++i) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') sb.append('\\').append(c);
+            else if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+            else sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Returns each factor followed by its number of occurrences, as per
+     * assignment.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+
+        for (Map.Entry<BigInteger, Integer> entry : factors.entrySet())
+            sb.append(entry.getKey() + " " + entry.getValue() + " ");
+
+        sb.setLength(Math.max(sb.length() - 1, 0)); // Remove trailing space
+        return sb.toString();
+    }
+}
@@ -0,0 +1,230 @@
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * Greatest common divisors on mutable 32-bit limbs, reusing buffers per
+ * thread instead of allocating a BigInteger per step.
+ *
+ * Lehmer's algorithm runs Euclid on a double-digit (60-bit) leading part
+ * of both numbers in plain longs, then applies the collected cofactors to
+ * the full numbers in a single pass, removing about 30 bits a pass.
+ * Jebelean's condition decides how many of the quotients found this way
+ * are also quotients of the full numbers. Once both fit in 64 bits a
+ * binary gcd finishes.
+ */
+public class Gcd {
+
+    private static final long MASK = 0xFFFFFFFFL;
+    private static final int WINDOW = 60; // Bits of the leading part
+
+    private static final ThreadLocal<Gcd> SCRATCH = ThreadLocal.withInitial(Gcd::new);
+
+    // Little-endian limbs of the current pair a >= b, and two spares
+    private int[] a = new int[16], b = new int[16], s = new int[16], t = new int[16];
+    private int la, lb;
+
+    private Gcd() {
+    }
+
+    /**
+     * Returns the greatest common divisor of the given numbers.
+     */
+    public static BigInteger gcd(BigInteger x, BigInteger y) {
+        if (Metrics.ENABLED) Metrics.GCDS.increment();
+
+        x = x.abs();
+        y = y.abs();
+        if (x.signum() == 0) return y;
+        if (y.signum() == 0) return x;
+
+        if (x.bitLength() < 64 && y.bitLength() < 64)
+            return BigInteger.valueOf(binaryGcd(x.longValue(), y.longValue()));
+
+        return SCRATCH.get().run(x, y);
+    }
+
+    private BigInteger run(BigInteger x, BigInteger y) {
+        if (x.compareTo(y) < 0) {
+            BigInteger tmp = x;
+            x = y;
+            y = tmp;
+        }
+        a = load(x, a);
+        la = length(a);
+        b = load(y, b);
+        lb = length(b);
+
+        for (;;) {
+            if (lb == 0) return toBigInteger(a, la);
+            if (la <= 2) return unsigned(binaryGcd(word(a, la), word(b, lb)));
+
+            // A quotient of 2^32 or more is out of reach of a Lehmer step
+            if (la - lb >= 2 || !lehmerStep()) divisionStep();
+        }
+    }
+
+    /**
+     * Replaces (a, b) by (b, a mod b) with one full division.
+     */
+    private void divisionStep() {
+        BigInteger x = toBigInteger(a, la);
+        BigInteger y = toBigInteger(b, lb);
+        int[] tmp = a;
+        a = b;
+        la = lb;
+        b = load(x.mod(y), tmp);
+        lb = length(b);
+    }
+
+    /**
+     * Runs Euclid on the leading 60 bits of a and b and applies the
+     * quotients that hold for the full numbers. Returns false if there
+     * were none, which happens when the next quotient is very large.
+     */
+    private boolean lehmerStep() {
+        int k = bitLength(a, la) - WINDOW;
+        long r0 = bits(a, la, k);
+        long r1 = bits(b, lb, k);
+
+        // (r0, r1) = (u0 a + v0 b, u1 a + v1 b) in the leading bits
+        long u0 = 1, v0 = 0, u1 = 0, v1 = 1;
+        boolean stepped = false;
+
+        while (r1 != 0) {
+            long q = r0 / r1;
+            long r2 = r0 - q * r1;
+            long u2 = u0 - q * u1;
+            long v2 = v0 - q * v1;
+
+            // Jebelean's condition, for both cofactors at once
+            if (r2 < Math.max(Math.abs(u2), Math.abs(v2))
+                    || r1 - r2 < Math.max(Math.abs(u2 - u1), Math.abs(v2 - v1)))
+                break;
+
+            r0 = r1;
+            r1 = r2;
+            u0 = u1;
+            v0 = v1;
+            u1 = u2;
+            v1 = v2;
+            stepped = true;
+        }
+        if (!stepped) return false;
+
+        // The cofactors are below 2^30 and of opposite signs, so the sums
+        // of products and carries below fit in a long
+        if (s.length < la) s = new int[a.length];
+        if (t.length < la) t = new int[a.length];
+        long c0 = 0, c1 = 0;
+        for (int i=0; i<la; ++i) {
+            long ai = a[i] & MASK;
+            long bi = i < lb ? b[i] & MASK : 0;
+            c0 += u0 * ai + v0 * bi;
+            c1 += u1 * ai + v1 * bi;
+            s[i] = (int) c0;
+            t[i] = (int) c1;
+            c0 >>= 32;
+            c1 >>= 32;
+        }
+
+        int[] oldA = a, oldB = b;
+        a = s;
+        b = t;
+        s = oldA;
+        t = oldB;
+        la = length(a, la);
+        lb = length(b, la);
+        return true;
+    }
+
+    /**
+     * Returns the 64 bits of x starting at bit k.
+     */
+    private static long bits(int[] x, int len, int k) {
+        int i = k >>> 5;
+        int shift = k & 31;
+        long lo = (limb(x, len, i) & MASK) | (limb(x, len, i + 1) & MASK) << 32;
+        if (shift == 0) return lo;
+        return (lo >>> shift) | (limb(x, len, i + 2) & MASK) << (64 - shift);
+    }
+
+    private static int limb(int[] x, int len, int i) {
+        return i < len ? x[i] : 0;
+    }
+
+    private static int bitLength(int[] x, int len) {
+        return 32 * len - Integer.numberOfLeadingZeros(x[len - 1]);
+    }
+
+    /**
+     * Returns the lowest 64 bits of x.
+     */
+    private static long word(int[] x, int len) {
+        return (limb(x, len, 0) & MASK) | (limb(x, len, 1) & MASK) << 32;
+    }
+
+    private static int length(int[] x) {
+        return length(x, x.length);
+    }
+
+    private static int length(int[] x, int len) {
+        while (len > 0 && x[len - 1] == 0) --len;
+        return len;
+    }
+
+    /**
+     * Writes the limbs of the non-negative x into dst, or a larger array
+     * if it does not fit, clearing the rest. Returns the array used.
+     */
+    private static int[] load(BigInteger x, int[] dst) {
+        byte[] bytes = x.toByteArray(); // Big-endian, possibly with a zero sign byte
+        int limbs = (bytes.length + 3) / 4;
+        if (dst.length < limbs) dst = new int[Math.max(limbs, 2 * dst.length)];
+
+        Arrays.fill(dst, 0);
+        for (int i=0; i<bytes.length; ++i) {
+            int pos = bytes.length - 1 - i; // Byte i counted from the low end
+            dst[i >>> 2] |= (bytes[pos] & 0xFF) << (8 * (i & 3));
+        }
+        return dst;
+    }
+
+    private static BigInteger toBigInteger(int[] x, int len) {
+        byte[] bytes = new byte[4 * len];
+        for (int i=0; i<len; ++i) {
+            int pos = bytes.length - 4 * i;
+            bytes[pos - 1] = (byte) x[i];
+            bytes[pos - 2] = (byte) (x[i] >>> 8);
+            bytes[pos - 3] = (byte) (x[i] >>> 16);
+            bytes[pos - 4] = (byte) (x[i] >>> 24);
+        }
+        return new BigInteger(1, bytes);
+    }
+
+    private static BigInteger unsigned(long x) {
+        if (x >= 0) return BigInteger.valueOf(x);
+        return BigInteger.valueOf(x >>> 1).shiftLeft(1).or(BigInteger.valueOf(x & 1));
+    }
+
+    /**
+     * Stein's binary gcd of two unsigned 64-bit numbers.
+     */
+    static long binaryGcd(long u, long v) {
+        if (u == 0) return v;
+        if (v == 0) return u;
+
+        int shift = Long.numberOfTrailingZeros(u | v);
+        u >>>= Long.numberOfTrailingZeros(u);
+        do {
+            v >>>= Long.numberOfTrailingZeros(v);
+            if (Long.compareUnsigned(u, v) > 0) {
+                long tmp = u;
+                u = v;
+                v = tmp;
+            }
+            v -= u;
+        } while (v != 0);
+
+        return u << shift;
+    }
+}
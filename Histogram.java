@@ -0,0 +1,93 @@
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent histogram of non-negative longs, such as durations in
+ * nanoseconds. Values are counted in log-linear buckets, 16 per power of
+ * two, so any value is known to within 1/16 of itself however large it
+ * is, as in HdrHistogram. Recording is a few shifts and a LongAdder
+ * increment, so it does not contend between threads.
+ */
+public class Histogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+
+    // Values below SUB_COUNT are exact, then SUB_COUNT buckets for each
+    // of the exponents SUB_BITS up to 62
+    private static final int BUCKETS = SUB_COUNT + (63 - SUB_BITS) * SUB_COUNT;
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS];
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public Histogram() {
+        for (int i=0; i<BUCKETS; ++i) counts[i] = new LongAdder();
+    }
+
+    /**
+     * Records one occurrence of the given value, negative values as 0.
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts[bucket(value)].increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public long count() {
+        long count = 0;
+        for (LongAdder c : counts) count += c.sum();
+        return count;
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    public double mean() {
+        long count = count();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    /**
+     * Returns the largest value in the bucket holding the given quantile,
+     * 0 <= q <= 1, or 0 if nothing was recorded.
+     */
+    public long quantile(double q) {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i=0; i<BUCKETS; ++i) count += snapshot[i] = counts[i].sum();
+        if (count == 0) return 0;
+
+        long rank = Math.max((long) Math.ceil(q * count), 1);
+        for (int i=0; i<BUCKETS; ++i) {
+            rank -= snapshot[i];
+            if (rank <= 0) return Math.min(highest(i), max.get());
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (LongAdder c : counts) c.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    private static int bucket(long value) {
+        if (value < SUB_COUNT) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BITS;
+        return SUB_COUNT + shift * SUB_COUNT + (int) ((value >>> shift) & (SUB_COUNT - 1));
+    }
+
+    /**
+     * Returns the largest value counted in the given bucket.
+     */
+    private static long highest(int bucket) {
+        if (bucket < SUB_COUNT) return bucket;
+        int shift = (bucket - SUB_COUNT) / SUB_COUNT;
+        long mantissa = SUB_COUNT + (bucket - SUB_COUNT) % SUB_COUNT;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
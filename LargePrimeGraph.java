@@ -0,0 +1,234 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * The graph of partial relations in the quadratic sieve. Its vertices
+ * are large primes, with vertex 0 standing for 1, and every partial
+ * relation is an edge between its two large primes, or from 0 for a
+ * single one. The partials along a cycle multiply to a full relation,
+ * since each large prime on it then occurs twice.
+ *
+ * Primes map to vertices through an open addressing table in a direct
+ * buffer, 16 bytes a slot, so the millions of primes seen only once cost
+ * no objects. Union-find spots the edges that close a cycle. The other
+ * edges form a rooted spanning forest, in which the rest of the cycle is
+ * the path up from both ends to where they meet. Joining two trees
+ * re-roots the smaller, so each vertex moves O(log V) times.
+ */
+public class LargePrimeGraph {
+
+    private static final int SLOT = 16; // Prime as a long, vertex as an int, padding
+    private static final double MAX_LOAD = 0.5;
+
+    private ByteBuffer table;
+    private int capacity; // Slots, a power of two
+    private int vertices = 1; // Vertex 0 is 1
+
+    // Union-find, parent[v] == v at the roots, size counts the vertices of a root's set
+    private int[] parent = new int[1024], size = new int[1024];
+
+    // Spanning forest, -1 above a root, with the label of the edge up and the depth
+    private int[] up = new int[1024], upLabel = new int[1024], depth = new int[1024];
+
+    // The same forest as adjacency lists for walking down, edge e goes to
+    // target[e] and the next edge of the same vertex is next[e]
+    private int[] head = new int[1024];
+    private int[] next = new int[2048], target = new int[2048];
+    private int edges;
+
+    private int[] queue = new int[1024];
+
+    public LargePrimeGraph() {
+        allocate(1 << 12);
+        Arrays.fill(head, -1);
+        Arrays.fill(up, -1);
+        size[0] = 1;
+    }
+
+    public int vertices() {
+        return vertices;
+    }
+
+    /**
+     * Adds the partial relation with the given label and large primes,
+     * p2 being 1 for a single large prime. Returns the labels of a cycle
+     * it closes, itself included, or null if it closed none.
+     */
+    public int[] add(long p1, long p2, int edgeLabel) {
+        int u = vertex(p1);
+        int v = vertex(p2);
+        if (u == v) return null;
+
+        int ru = find(u);
+        int rv = find(v);
+        if (ru != rv) {
+            // Hang the smaller tree below the other
+            if (size[ru] > size[rv]) {
+                int tmp = u;
+                u = v;
+                v = tmp;
+                tmp = ru;
+                ru = rv;
+                rv = tmp;
+            }
+            parent[ru] = rv;
+            size[rv] += size[ru];
+            link(u, v);
+            reroot(u, v, edgeLabel);
+            return null;
+        }
+
+        return cycle(u, v, edgeLabel);
+    }
+
+    /**
+     * Returns the vertex of the given prime, adding it if new.
+     */
+    private int vertex(long p) {
+        if (p == 1) return 0;
+
+        int mask = capacity - 1;
+        for (int i = hash(p) & mask; ; i = (i + 1) & mask) {
+            int pos = i * SLOT;
+            long key = table.getLong(pos);
+            if (key == p) return table.getInt(pos + 8);
+            if (key == 0) {
+                int v = vertices++;
+                table.putLong(pos, p);
+                table.putInt(pos + 8, v);
+                grow(v);
+                if (vertices > capacity * MAX_LOAD) allocate(2 * capacity);
+                return v;
+            }
+        }
+    }
+
+    private static int hash(long p) {
+        return (int) ((p * 0x9E3779B97F4A7C15L) >>> 32);
+    }
+
+    /**
+     * Replaces the table by an empty one of the given capacity holding
+     * the same primes.
+     */
+    private void allocate(int newCapacity) {
+        ByteBuffer old = table;
+        int oldCapacity = capacity;
+        table = ByteBuffer.allocateDirect(newCapacity * SLOT).order(ByteOrder.nativeOrder());
+        capacity = newCapacity;
+        if (old == null) return;
+
+        int mask = capacity - 1;
+        for (int j=0; j<oldCapacity; ++j) {
+            long key = old.getLong(j * SLOT);
+            if (key == 0) continue;
+            int i = hash(key) & mask;
+            while (table.getLong(i * SLOT) != 0) i = (i + 1) & mask;
+            table.putLong(i * SLOT, key);
+            table.putInt(i * SLOT + 8, old.getInt(j * SLOT + 8));
+        }
+    }
+
+    /**
+     * Makes room for vertex v in the per-vertex arrays.
+     */
+    private void grow(int v) {
+        if (v == parent.length) {
+            int length = 2 * v;
+            parent = Arrays.copyOf(parent, length);
+            size = Arrays.copyOf(size, length);
+            up = Arrays.copyOf(up, length);
+            upLabel = Arrays.copyOf(upLabel, length);
+            depth = Arrays.copyOf(depth, length);
+            head = Arrays.copyOf(head, length);
+            queue = Arrays.copyOf(queue, length);
+            Arrays.fill(up, v, length, -1);
+            Arrays.fill(head, v, length, -1);
+        }
+        parent[v] = v;
+        size[v] = 1;
+    }
+
+    private int find(int v) {
+        while (parent[v] != v) {
+            parent[v] = parent[parent[v]]; // Path halving
+            v = parent[v];
+        }
+        return v;
+    }
+
+    /**
+     * Adds the forest edge between u and v to both adjacency lists.
+     */
+    private void link(int u, int v) {
+        if (edges + 2 > next.length) {
+            next = Arrays.copyOf(next, 2 * next.length);
+            target = Arrays.copyOf(target, 2 * target.length);
+        }
+        for (int k=0; k<2; ++k) {
+            target[edges] = v;
+            next[edges] = head[u];
+            head[u] = edges++;
+            int tmp = u;
+            u = v;
+            v = tmp;
+        }
+    }
+
+    /**
+     * Makes u the root of its tree by reversing the path above it, hangs
+     * it below v through the edge with the given label, and recomputes
+     * the depths in the moved tree.
+     */
+    private void reroot(int u, int v, int edgeLabel) {
+        int below = v, belowLabel = edgeLabel;
+        for (int x = u; x >= 0; ) {
+            int nextUp = up[x], nextLabel = upLabel[x];
+            up[x] = below;
+            upLabel[x] = belowLabel;
+            below = x;
+            belowLabel = nextLabel;
+            x = nextUp;
+        }
+
+        depth[u] = depth[v] + 1;
+        queue[0] = u;
+        for (int qh=0, qt=1; qh<qt; ++qh) {
+            int x = queue[qh];
+            for (int e = head[x]; e >= 0; e = next[e]) {
+                int y = target[e];
+                if (y == up[x]) continue;
+                depth[y] = depth[x] + 1;
+                queue[qt++] = y;
+            }
+        }
+    }
+
+    /**
+     * Returns the labels of the forest path between u and v, which are
+     * in the same tree, followed by the given label of the edge closing
+     * the cycle.
+     */
+    private int[] cycle(int u, int v, int edgeLabel) {
+        int length = 1;
+        for (int x = u, y = v; x != y; ++length) {
+            if (depth[x] >= depth[y]) x = up[x];
+            else y = up[y];
+        }
+
+        int[] cycle = new int[length];
+        int k = 0;
+        while (u != v) {
+            if (depth[u] >= depth[v]) {
+                cycle[k++] = upLabel[u];
+                u = up[u];
+            } else {
+                cycle[k++] = upLabel[v];
+                v = up[v];
+            }
+        }
+        cycle[k] = edgeLabel;
+        return cycle;
+    }
+}
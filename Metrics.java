@@ -0,0 +1,138 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters and stage timings for factoring runs, off unless
+ * -Dfactor.metrics=SECONDS is given. When on they are published over JMX
+ * as factoriser:type=Metrics and, for SECONDS > 0, a summary is printed
+ * to stderr that often.
+ *
+ * Every update is guarded by ENABLED, a static final the JIT folds to a
+ * constant, so with metrics off the updates are removed from the
+ * compiled code. Inner loops count locally and add once per batch.
+ */
+public final class Metrics implements MetricsMBean {
+
+    private static final long INTERVAL = Long.getLong("factor.metrics", -1);
+
+    public static final boolean ENABLED = INTERVAL >= 0;
+
+    public static final LongAdder RHO_STEPS = new LongAdder();
+    public static final LongAdder GCDS = new LongAdder();
+    public static final LongAdder MR_ROUNDS = new LongAdder(); // Bases tried by Miller-Rabin
+    public static final LongAdder QS_RELATIONS = new LongAdder();
+
+    // Time spent per strategy stage, in nanoseconds
+    private static final Map<String, Histogram> STAGE_TIMES = new ConcurrentSkipListMap<String, Histogram>();
+
+    static {
+        if (ENABLED) start();
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * Records the time spent by one run of the named stage.
+     */
+    public static void stageTime(String stage, long nanos) {
+        STAGE_TIMES.computeIfAbsent(stage, s -> new Histogram()).record(nanos);
+    }
+
+    /**
+     * Returns the counters and stage timings on one line.
+     */
+    public static String summary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("rho steps ").append(RHO_STEPS.sum())
+          .append(", gcds ").append(GCDS.sum())
+          .append(", MR rounds ").append(MR_ROUNDS.sum())
+          .append(", QS relations ").append(QS_RELATIONS.sum());
+        for (String line : stageLines()) sb.append("; ").append(line);
+        return sb.toString();
+    }
+
+    private static List<String> stageLines() {
+        List<String> lines = new ArrayList<String>();
+        for (Map.Entry<String, Histogram> entry : STAGE_TIMES.entrySet()) {
+            Histogram h = entry.getValue();
+            lines.add(String.format("%s %d runs, p50 %s, p99 %s, max %s", entry.getKey(), h.count(),
+                    millis(h.quantile(0.5)), millis(h.quantile(0.99)), millis(h.max())));
+        }
+        return lines;
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.1f ms", nanos / 1e6);
+    }
+
+    /**
+     * Registers the MBean and schedules the periodic summary.
+     */
+    private static void start() {
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                .registerMBean(new Metrics(), new ObjectName("factoriser:type=Metrics"));
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot register metrics MBean", e);
+        }
+
+        if (INTERVAL > 0) {
+            ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "metrics");
+                t.setDaemon(true);
+                return t;
+            });
+            timer.scheduleAtFixedRate(() -> System.err.println("=== Metrics: " + summary()),
+                    INTERVAL, INTERVAL, TimeUnit.SECONDS);
+        }
+    }
+
+    @Override
+    public long getRhoSteps() {
+        return RHO_STEPS.sum();
+    }
+
+    @Override
+    public long getGcds() {
+        return GCDS.sum();
+    }
+
+    @Override
+    public long getMillerRabinRounds() {
+        return MR_ROUNDS.sum();
+    }
+
+    @Override
+    public long getSieveRelations() {
+        return QS_RELATIONS.sum();
+    }
+
+    @Override
+    public String[] getStageTimes() {
+        return stageLines().toArray(new String[0]);
+    }
+
+    @Override
+    public String getSummary() {
+        return summary();
+    }
+
+    @Override
+    public void reset() {
+        RHO_STEPS.reset();
+        GCDS.reset();
+        MR_ROUNDS.reset();
+        QS_RELATIONS.reset();
+        for (Histogram h : STAGE_TIMES.values()) h.reset();
+    }
+}
@@ -0,0 +1,24 @@
+/**
+ * Management interface of Metrics, registered as factoriser:type=Metrics
+ * when metrics are enabled.
+ */
+public interface MetricsMBean {
+
+    long getRhoSteps();
+
+    long getGcds();
+
+    long getMillerRabinRounds();
+
+    long getSieveRelations();
+
+    /**
+     * Returns one line per strategy stage with its run count and time
+     * quantiles.
+     */
+    String[] getStageTimes();
+
+    String getSummary();
+
+    void reset();
+}
@@ -1,8 +1,12 @@
 import java.math.BigInteger;
+import java.util.Arrays;
 import java.util.Random;
 
 /**
- * Class for performing Miller-Rabin's primality test.
+ * Class for primality testing. Numbers are first trial divided by small
+ * primes, then tested with a deterministic set of Miller-Rabin bases
+ * below 3.3 * 10^24, and with the Baillie-PSW test (strong base 2
+ * Miller-Rabin followed by a strong Lucas test) above it.
  */
 public class MillerRabin {
 
@@ -11,42 +15,62 @@ public class MillerRabin {
     private static final BigInteger TWO   = BigInteger.valueOf(2);
     private static final BigInteger THREE = BigInteger.valueOf(3);
 
-    // Do more iterations for a smaller error
-    private static final int ITERATIONS = 100;
+    // The first 13 primes as bases are a proof of primality below this bound
+    private static final BigInteger DETERMINISTIC_LIMIT = new BigInteger("3317044064679887385961981");
+    private static final int[] DETERMINISTIC_BASES = {2, 3, 5, 7, 11, 13, 17, 19, 23, 29, 31, 37, 41};
+
+    // Odd primes below this bound are tried by division first
+    private static final int TRIAL_LIMIT = 1000;
+    private static final int[] TRIAL_PRIMES;
+    private static final long[] TRIAL_PRODUCTS; // Products of consecutive TRIAL_PRIMES
+    private static final int[] TRIAL_GROUP_END; // Index after the last prime of each product
+
+    static {
+        int[] primes = Primes.upTo(TRIAL_LIMIT);
+        TRIAL_PRIMES = Arrays.copyOfRange(primes, 1, primes.length); // Skip 2
+
+        long[] products = new long[TRIAL_PRIMES.length];
+        int[] ends = new int[TRIAL_PRIMES.length];
+        int groups = 0;
+        for (int i=0; i<TRIAL_PRIMES.length; ) {
+            long product = 1;
+            while (i < TRIAL_PRIMES.length && product <= Long.MAX_VALUE / TRIAL_PRIMES[i])
+                product *= TRIAL_PRIMES[i++];
+            products[groups] = product;
+            ends[groups++] = i;
+        }
+        TRIAL_PRODUCTS = Arrays.copyOf(products, groups);
+        TRIAL_GROUP_END = Arrays.copyOf(ends, groups);
+    }
 
     private static final Random rand = new Random();
 
     /**
-     * Test the if a witness n as composite with Miller-Rabin.
+     * Test if a witnesses n as composite with Miller-Rabin, given
+     * n - 1 = 2^t * u with u odd. n is above 2^64 here, so a^u is taken
+     * by BigInteger.modPow, which beat Montgomery.pow on limbs even with
+     * all 13 bases sharing one pass over u.
      */
-    private static boolean isWitness(BigInteger a, BigInteger n) {
-        // Compute t and u such that p - 1 = 2^t * u, where u is odd
-        int t = 1;
-        BigInteger u = n.subtract(ONE).divide(TWO);
-
-        // Calculate t through repeated division with 2 until u odd
-        while (u.mod(TWO).equals(ZERO)) {
-            u = u.divide(TWO);
-            ++t;
-        }
+    private static boolean isWitness(BigInteger a, BigInteger n, BigInteger u, int t) {
+        BigInteger nMinusOne = n.subtract(ONE);
 
         // Check if a witness n as composite
         BigInteger x = Maths.modPow(a, u, n);
+        if (Metrics.ENABLED) Metrics.MR_ROUNDS.increment();
+        if (x.equals(ONE) || x.equals(nMinusOne)) return false;
 
-        for (int i=0; i<t; ++i) {
-            BigInteger xNew = x.multiply(x).mod(n); // x^2 mod n
-
-            // xNew == 1 && !(x == 1) && !(x == (n - 1))
-            if (xNew.equals(ONE) && !x.equals(ONE) && !x.equals(n.subtract(ONE)))
-                return true;
-            x = xNew;
+        for (int i=1; i<t; ++i) {
+            x = x.multiply(x).mod(n); // x^2 mod n
+            if (x.equals(nMinusOne)) return false;
+            if (x.equals(ONE)) return true; // Non-trivial square root of 1
         }
 
-        return !x.equals(ONE);
+        return true;
     }
 
     /**
-     * Test if n is probably prime according to the Miller-Rabin test.
+     * Test if n is probably prime. The answer is exact below 3.3 * 10^24,
+     * and no Baillie-PSW pseudoprime is known above it.
      */
     public static boolean isProbablePrime(BigInteger n) {
         // Handle simple cases and if it is even
@@ -54,22 +78,123 @@ public class MillerRabin {
         if (n.equals(ONE))           return false;
         if (n.equals(TWO))           return true;
         if (n.equals(THREE))         return true;
-        if (n.mod(TWO).equals(ZERO)) return false;
+        if (!n.testBit(0))           return false;
+
+        if (n.bitLength() < 31) {
+            int m = n.intValue();
+            if (m < TRIAL_LIMIT * TRIAL_LIMIT) return Primes.isPrime(m);
+        }
+        if (n.bitLength() <= SmallFactor.MAX_BITS) return SmallFactor.isPrime(n.longValue());
+
+        // Trial division, one BigInteger remainder per group of primes
+        for (int g=0, i=0; g<TRIAL_PRODUCTS.length; ++g) {
+            long r = n.mod(BigInteger.valueOf(TRIAL_PRODUCTS[g])).longValue();
+            for (; i<TRIAL_GROUP_END[g]; ++i) {
+                if (r % TRIAL_PRIMES[i] == 0) return false;
+            }
+        }
+
+        // Compute t and u such that n - 1 = 2^t * u, where u is odd
+        BigInteger nMinusOne = n.subtract(ONE);
+        int t = nMinusOne.getLowestSetBit();
+        BigInteger u = nMinusOne.shiftRight(t);
+
+        // Base 2 alone first, it rejects almost every composite
+        if (isWitness(TWO, n, u, t)) return false;
+
+        if (n.compareTo(DETERMINISTIC_LIMIT) < 0) {
+            for (int i=1; i<DETERMINISTIC_BASES.length; ++i) {
+                if (isWitness(BigInteger.valueOf(DETERMINISTIC_BASES[i]), n, u, t)) return false; // Definitely composite
+            }
+            return true;
+        }
+
+        // Baillie-PSW, base 2 has already passed
+        return isStrongLucasProbablePrime(n);
+    }
+
+    /**
+     * Strong Lucas probable prime test with Selfridge's parameters: D is
+     * the first of 5, -7, 9, -11, ... with Jacobi (D/n) = -1, P = 1 and
+     * Q = (1 - D) / 4. Takes an odd n without small factors.
+     */
+    private static boolean isStrongLucasProbablePrime(BigInteger n) {
+        // Squares never give (D/n) = -1
+        BigInteger root = n.sqrt();
+        if (root.multiply(root).equals(n)) return false;
+
+        long d = 5;
+        for (;;) {
+            int j = jacobi(d, n);
+            if (j == -1) break;
+            if (j == 0 && BigInteger.valueOf(Math.abs(d)).compareTo(n) < 0) return false;
+            d = d > 0 ? -d - 2 : -d + 2;
+        }
+        BigInteger bigD = BigInteger.valueOf(d);
+        BigInteger q = BigInteger.valueOf((1 - d) / 4).mod(n);
+
+        // n + 1 = 2^s * k, with k odd
+        BigInteger nPlusOne = n.add(ONE);
+        int s = nPlusOne.getLowestSetBit();
+        BigInteger k = nPlusOne.shiftRight(s);
+
+        // Binary evaluation of U_k, V_k and Q^k with P = 1
+        BigInteger u = ONE;
+        BigInteger v = ONE;
+        BigInteger qk = q;
+        for (int i=k.bitLength()-2; i>=0; --i) {
+            u = u.multiply(v).mod(n);                         // U_2m = U_m V_m
+            v = v.multiply(v).subtract(qk.shiftLeft(1)).mod(n); // V_2m = V_m^2 - 2Q^m
+            qk = qk.multiply(qk).mod(n);
+
+            if (k.testBit(i)) {
+                BigInteger u2 = half(u.add(v), n);                  // U_m+1 = (P U_m + V_m) / 2
+                BigInteger v2 = half(bigD.multiply(u).add(v), n);   // V_m+1 = (D U_m + P V_m) / 2
+                u = u2;
+                v = v2;
+                qk = qk.multiply(q).mod(n);
+            }
+        }
+
+        if (u.signum() == 0 || v.signum() == 0) return true;
+        for (int r=1; r<s; ++r) {
+            v = v.multiply(v).subtract(qk.shiftLeft(1)).mod(n);
+            if (v.signum() == 0) return true;
+            qk = qk.multiply(qk).mod(n);
+        }
+
+        return false;
+    }
 
-        // Increase ITERATIONS to decrease error rate
-        for (int i=0; i<ITERATIONS; i++) {
-            BigInteger a;
+    /**
+     * Returns x / 2 mod the odd number n.
+     */
+    private static BigInteger half(BigInteger x, BigInteger n) {
+        x = x.mod(n);
+        if (x.testBit(0)) x = x.add(n);
+        return x.shiftRight(1);
+    }
 
-            // Generate random integer in (1, n-1)
-            do {
-                a = new BigInteger(n.bitLength(), rand);
-            } while (a.compareTo(ONE) <= 0 || a.compareTo(n.subtract(ONE)) >= 0);
+    /**
+     * Returns the Jacobi symbol (a/n) for a small a and odd positive n.
+     */
+    private static int jacobi(long a, BigInteger n) {
+        int j = 1;
+        int n8 = n.intValue() & 7; // n mod 8
 
-            // Check if it's a witness
-            if (isWitness(a, n)) return false; // Definitely composite
+        if (a < 0) {
+            a = -a;
+            if ((n8 & 3) == 3) j = -j; // (-1/n)
+        }
+        while ((a & 1) == 0) {
+            a >>= 1;
+            if (n8 == 3 || n8 == 5) j = -j; // (2/n)
         }
+        if (a == 1) return j;
 
-        return true; // Pribably prime
+        // Quadratic reciprocity, then everything fits in a long
+        if ((a & 3) == 3 && (n8 & 3) == 3) j = -j;
+        return j * Maths.jacobi(n.mod(BigInteger.valueOf(a)).longValue(), a);
     }
 
     /**
@@ -0,0 +1,307 @@
+import java.math.BigInteger;
+
+/**
+ * Modular arithmetic in Montgomery form on fixed-width long[] limbs.
+ * Numbers are stored little-endian in 64-bit limbs and all operations
+ * write their result into a caller supplied array, so no objects are
+ * allocated once the operands have been created. Instances hold a
+ * scratch buffer and must not be shared between threads.
+ */
+public class Montgomery {
+
+    private final BigInteger modulus;
+    private final int k;         // Number of limbs
+    private final long[] n;      // Modulus limbs
+    private final long nPrime;   // -n^-1 mod 2^64
+    private final BigInteger r2; // R^2 mod n, R = 2^(64k)
+    private final long[] one;    // R mod n, 1 in Montgomery form
+    private final long[] t;      // Scratch space for multiplication
+
+    // Largest exponent bit length for each window size, as in BigInteger
+    private static final int[] WINDOW_THRESHOLDS = {7, 25, 81, 241, 673, 1793};
+
+    /**
+     * Creates a Montgomery context for the given odd modulus.
+     */
+    public Montgomery(BigInteger modulus) {
+        if (!modulus.testBit(0))
+            throw new IllegalArgumentException("Modulus must be odd: " + modulus);
+
+        this.modulus = modulus;
+        k = (modulus.bitLength() + 63) / 64;
+        n = toLimbs(modulus, k);
+        r2 = BigInteger.ONE.shiftLeft(128 * k).mod(modulus);
+        one = toLimbs(BigInteger.ONE.shiftLeft(64 * k).mod(modulus), k);
+        t = new long[k + 2];
+
+        // Newton iteration for n^-1 mod 2^64, each step doubles the
+        // number of correct bits starting from 3 correct bits
+        long inv = n[0];
+        for (int i=0; i<5; ++i) inv *= 2 - n[0] * inv;
+        nPrime = -inv;
+    }
+
+    /**
+     * Returns the modulus.
+     */
+    public BigInteger modulus() {
+        return modulus;
+    }
+
+    /**
+     * Returns a new zeroed element of the right width.
+     */
+    public long[] newElement() {
+        return new long[k];
+    }
+
+    /**
+     * Converts x into Montgomery form, x * R mod n, and stores it in out.
+     */
+    public void toMontgomery(BigInteger x, long[] out) {
+        long[] a = toLimbs(x.mod(modulus), k);
+        long[] b = toLimbs(r2, k);
+        multiply(a, b, out);
+    }
+
+    /**
+     * Converts a from Montgomery form back to a BigInteger, a * R^-1 mod n.
+     */
+    public BigInteger fromMontgomery(long[] a) {
+        long[] one = new long[k];
+        long[] res = new long[k];
+        one[0] = 1;
+        multiply(a, one, res);
+        return toBigInteger(res);
+    }
+
+    /**
+     * Returns the raw limbs of a as a non-negative BigInteger. As R is
+     * coprime to n this can be passed directly to a gcd with n.
+     */
+    public BigInteger toBigInteger(long[] a) {
+        byte[] bytes = new byte[8 * k + 1]; // Leading zero byte keeps it positive
+        for (int i=0; i<k; ++i) {
+            long limb = a[i];
+            for (int j=0; j<8; ++j)
+                bytes[bytes.length - 1 - 8 * i - j] = (byte) (limb >>> (8 * j));
+        }
+        return new BigInteger(bytes);
+    }
+
+    /**
+     * Copies a into out.
+     */
+    public void copy(long[] a, long[] out) {
+        System.arraycopy(a, 0, out, 0, k);
+    }
+
+    /**
+     * Computes out = a * b * R^-1 mod n using coarsely integrated
+     * operand scanning. out may alias a or b.
+     */
+    public void multiply(long[] a, long[] b, long[] out) {
+        for (int i=0; i<k+2; ++i) t[i] = 0;
+
+        for (int i=0; i<k; ++i) {
+            // t += a * b[i]
+            long bi = b[i];
+            long carry = 0;
+            for (int j=0; j<k; ++j) {
+                long lo = a[j] * bi;
+                long hi = multiplyHighUnsigned(a[j], bi);
+                lo += t[j];
+                if (Long.compareUnsigned(lo, t[j]) < 0) ++hi;
+                lo += carry;
+                if (Long.compareUnsigned(lo, carry) < 0) ++hi;
+                t[j] = lo;
+                carry = hi;
+            }
+            long sum = t[k] + carry;
+            t[k + 1] = Long.compareUnsigned(sum, carry) < 0 ? 1 : 0;
+            t[k] = sum;
+
+            // t = (t + m * n) / 2^64, which makes the lowest limb zero
+            long m = t[0] * nPrime;
+            long lo = m * n[0];
+            carry = multiplyHighUnsigned(m, n[0]);
+            lo += t[0];
+            if (Long.compareUnsigned(lo, t[0]) < 0) ++carry;
+            for (int j=1; j<k; ++j) {
+                lo = m * n[j];
+                long hi = multiplyHighUnsigned(m, n[j]);
+                lo += t[j];
+                if (Long.compareUnsigned(lo, t[j]) < 0) ++hi;
+                lo += carry;
+                if (Long.compareUnsigned(lo, carry) < 0) ++hi;
+                t[j - 1] = lo;
+                carry = hi;
+            }
+            sum = t[k] + carry;
+            t[k - 1] = sum;
+            t[k] = t[k + 1] + (Long.compareUnsigned(sum, carry) < 0 ? 1 : 0);
+        }
+
+        // Result is below 2n, subtract n once if needed
+        if (t[k] != 0 || compare(t, n) >= 0) subtract(t, n, out);
+        else System.arraycopy(t, 0, out, 0, k);
+    }
+
+    /**
+     * Computes out = a^2 * R^-1 mod n.
+     */
+    public void square(long[] a, long[] out) {
+        multiply(a, a, out);
+    }
+
+    /**
+     * Computes out = a^e in Montgomery form, for a in Montgomery form and
+     * e >= 0, with a sliding window over the bits of e. out may alias a.
+     */
+    public void pow(long[] a, BigInteger e, long[] out) {
+        pow(new long[][] {a}, e, new long[][] {out});
+    }
+
+    /**
+     * Computes out[i] = a[i]^e for several bases at once. The exponent is
+     * scanned once and every base advances in step, which saves repeated
+     * window decoding when many bases share an exponent, as in
+     * Miller-Rabin. out[i] may alias a[i].
+     */
+    public void pow(long[][] a, BigInteger e, long[][] out) {
+        int bits = e.bitLength();
+        if (bits == 0) {
+            for (long[] o : out) copy(one, o);
+            return;
+        }
+
+        int w = 1;
+        while (w <= WINDOW_THRESHOLDS.length && bits > WINDOW_THRESHOLDS[w - 1]) ++w;
+
+        // table[b][i] = a[b]^(2i + 1)
+        long[][][] table = new long[a.length][1 << (w - 1)][];
+        for (int b=0; b<a.length; ++b) {
+            long[] square = newElement();
+            square(a[b], square);
+            table[b][0] = a[b].clone();
+            for (int i=1; i<table[b].length; ++i) {
+                table[b][i] = newElement();
+                multiply(table[b][i - 1], square, table[b][i]);
+            }
+        }
+
+        boolean started = false;
+        for (int i=bits-1; i>=0; ) {
+            if (!e.testBit(i)) {
+                for (long[] o : out) square(o, o);
+                --i;
+                continue;
+            }
+
+            // Longest window of at most w bits from i down to a set bit
+            int j = Math.max(i - w + 1, 0);
+            while (!e.testBit(j)) ++j;
+            int value = 0;
+            for (int b=i; b>=j; --b) value = value << 1 | (e.testBit(b) ? 1 : 0);
+
+            for (int b=0; b<a.length; ++b) {
+                if (!started) {
+                    copy(table[b][value >>> 1], out[b]);
+                } else {
+                    for (int s=i; s>=j; --s) square(out[b], out[b]);
+                    multiply(out[b], table[b][value >>> 1], out[b]);
+                }
+            }
+            started = true;
+            i = j - 1;
+        }
+    }
+
+    /**
+     * Computes out = a + b mod n for reduced a and b.
+     */
+    public void add(long[] a, long[] b, long[] out) {
+        long carry = 0;
+        for (int i=0; i<k; ++i) {
+            long s = a[i] + carry;
+            long c1 = Long.compareUnsigned(s, carry) < 0 ? 1 : 0;
+            long r = s + b[i];
+            long c2 = Long.compareUnsigned(r, s) < 0 ? 1 : 0;
+            out[i] = r;
+            carry = c1 + c2;
+        }
+
+        if (carry != 0 || compare(out, n) >= 0) subtract(out, n, out);
+    }
+
+    /**
+     * Computes out = a - b mod n for reduced a and b.
+     */
+    public void subtractMod(long[] a, long[] b, long[] out) {
+        if (subtract(a, b, out) != 0) {
+            // Went negative, add n back and drop the final carry
+            long carry = 0;
+            for (int i=0; i<k; ++i) {
+                long s = out[i] + carry;
+                long c1 = Long.compareUnsigned(s, carry) < 0 ? 1 : 0;
+                long r = s + n[i];
+                long c2 = Long.compareUnsigned(r, s) < 0 ? 1 : 0;
+                out[i] = r;
+                carry = c1 + c2;
+            }
+        }
+    }
+
+    /**
+     * Computes out = a - b over the low k limbs and returns the borrow.
+     */
+    private long subtract(long[] a, long[] b, long[] out) {
+        long borrow = 0;
+        for (int i=0; i<k; ++i) {
+            long d = a[i] - b[i];
+            long b1 = Long.compareUnsigned(a[i], b[i]) < 0 ? 1 : 0;
+            long r = d - borrow;
+            long b2 = Long.compareUnsigned(d, borrow) < 0 ? 1 : 0;
+            out[i] = r;
+            borrow = b1 + b2;
+        }
+        return borrow;
+    }
+
+    /**
+     * Compares the low k limbs of a and b as unsigned numbers.
+     */
+    private int compare(long[] a, long[] b) {
+        for (int i=k-1; i>=0; --i) {
+            if (a[i] != b[i]) return Long.compareUnsigned(a[i], b[i]);
+        }
+        return 0;
+    }
+
+    /**
+     * Returns true if a is zero.
+     */
+    public boolean isZero(long[] a) {
+        for (int i=0; i<k; ++i) {
+            if (a[i] != 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * High 64 bits of the unsigned 128-bit product of a and b.
+     */
+    private static long multiplyHighUnsigned(long a, long b) {
+        return Math.multiplyHigh(a, b) + ((a >> 63) & b) + ((b >> 63) & a);
+    }
+
+    /**
+     * Splits a non-negative x into k little-endian 64-bit limbs.
+     */
+    private static long[] toLimbs(BigInteger x, int k) {
+        long[] limbs = new long[k];
+        for (int i=0; i<k; ++i)
+            limbs[i] = x.shiftRight(64 * i).longValue();
+        return limbs;
+    }
+}
@@ -0,0 +1,117 @@
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * Pollard's p - 1 method. Finds a prime factor p of n when p - 1 is a
+ * product of primes up to B1 and at most one more prime up to B2.
+ */
+public class PMinusOne {
+
+    private static final BigInteger ONE   = BigInteger.ONE;
+    private static final BigInteger THREE = BigInteger.valueOf(3);
+
+    // Number of primes handled between checks for timeout or cancellation
+    private static final int CHECK_INTERVAL = 1024;
+
+    /**
+     * Runs stage 1 with bound b1 and stage 2 up to b2 on the odd number n.
+     * Returns a non-trivial divisor and the stage that found it, or null
+     * if there was none or the deadline passed.
+     */
+    public static Divisor pMinusOne(BigInteger n, int b1, long b2, Deadline deadline) {
+        Montgomery mont = new Montgomery(n);
+        long[] one = mont.newElement();
+        long[] x = mont.newElement();
+        mont.toMontgomery(ONE, one);
+        mont.toMontgomery(THREE, x);
+
+        // Stage 1, x = 3^E with E the product of all prime powers up to b1
+        mont.pow(x, Primes.powerProduct(b1), x);
+        BigInteger g = gcdMinusOne(mont, x, one);
+        if (g.equals(n)) {
+            g = stage1Slow(mont, one, b1, deadline);
+            return g == null || g.equals(ONE) ? null : new Divisor(g, "p-1 stage 1");
+        }
+        if (!g.equals(ONE)) return new Divisor(g, "p-1 stage 1");
+        if (deadline.expired()) return null;
+
+        g = stage2(mont, x, one, b1, b2, deadline);
+        if (g == null || g.equals(ONE) || g.equals(n)) return null;
+        return new Divisor(g, "p-1 stage 2");
+    }
+
+    /**
+     * Repeats stage 1 one prime power at a time, for when every factor of
+     * n was found at once. Returns the first proper divisor, ONE if the
+     * factors cannot be separated this way, or null if stopped.
+     */
+    private static BigInteger stage1Slow(Montgomery mont, long[] one, int b1, Deadline deadline) {
+        long[] x = mont.newElement();
+        mont.toMontgomery(THREE, x);
+
+        int count = 0;
+        for (int p = 2; p <= b1; p = Primes.nextPrime(p)) {
+            long q = p;
+            while (q <= b1 / p) q *= p;
+            mont.pow(x, BigInteger.valueOf(q), x);
+
+            BigInteger g = gcdMinusOne(mont, x, one);
+            if (g.equals(mont.modulus())) return ONE;
+            if (!g.equals(ONE)) return g;
+            if (++count % CHECK_INTERVAL == 0 && deadline.expired()) return null;
+        }
+        return ONE;
+    }
+
+    /**
+     * Standard continuation: accumulates x^q - 1 for every prime
+     * b1 < q <= b2. Consecutive powers are reached by multiplying by x^d
+     * for the gap d between the primes, from a table of even powers that
+     * grows as larger gaps turn up. Returns gcd of the product with n, or
+     * null if stopped.
+     */
+    private static BigInteger stage2(Montgomery mont, long[] x, long[] one, int b1, long b2,
+            Deadline deadline) {
+        if (b2 > Integer.MAX_VALUE - 1) b2 = Integer.MAX_VALUE - 1;
+        Primes.ensure(b2 + 1);
+
+        long[][] gapPowers = new long[64][]; // gapPowers[d / 2] = x^d
+        gapPowers[1] = mont.newElement();
+        mont.square(x, gapPowers[1]);
+
+        int q = Primes.nextPrime(b1);
+        long[] y = mont.newElement();
+        mont.pow(x, BigInteger.valueOf(q), y);
+        long[] acc = mont.newElement();
+        long[] t = mont.newElement();
+        mont.subtractMod(y, one, acc);
+
+        int count = 0;
+        for (int prev = q; (q = Primes.nextPrime(prev)) <= b2; prev = q) {
+            int h = (q - prev) / 2;
+            if (h >= gapPowers.length) gapPowers = Arrays.copyOf(gapPowers, 2 * h);
+            for (int i=2; i<=h; ++i) {
+                if (gapPowers[i] != null) continue;
+                gapPowers[i] = mont.newElement();
+                mont.multiply(gapPowers[i - 1], gapPowers[1], gapPowers[i]);
+            }
+
+            mont.multiply(y, gapPowers[h], y);
+            mont.subtractMod(y, one, t);
+            mont.multiply(acc, t, acc);
+
+            if (++count % CHECK_INTERVAL == 0 && deadline.expired()) return null;
+        }
+
+        return Maths.gcd(mont.toBigInteger(acc), mont.modulus());
+    }
+
+    /**
+     * Returns gcd(x - 1, n) for x in Montgomery form.
+     */
+    private static BigInteger gcdMinusOne(Montgomery mont, long[] x, long[] one) {
+        long[] t = mont.newElement();
+        mont.subtractMod(x, one, t);
+        return Maths.gcd(mont.toBigInteger(t), mont.modulus());
+    }
+}
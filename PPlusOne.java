@@ -0,0 +1,159 @@
+import java.math.BigInteger;
+
+/**
+ * Williams' p + 1 method using Lucas sequences V_k(P) mod n. Finds a
+ * prime factor p of n when p + 1 is a product of primes up to B1 and at
+ * most one more prime up to B2, provided P^2 - 4 is a non-residue mod p.
+ * Otherwise it finds the same factors as p - 1, so several values of P
+ * are tried.
+ */
+public class PPlusOne {
+
+    private static final BigInteger ONE = BigInteger.ONE;
+
+    // Montgomery's seeds 2/7 and 6/5, which make the group order divisible
+    // by 6 and 4 respectively, as {numerator, denominator}
+    private static final int[][] SEEDS = {{2, 7}, {6, 5}};
+
+    // Giant step size in stage 2, baby steps are the j < D/2 coprime to D
+    private static final int D = 210;
+
+    // Number of giant steps taken between checks for timeout or cancellation
+    private static final int CHECK_INTERVAL = 1024;
+
+    /**
+     * Runs stage 1 with bound b1 and stage 2 up to b2 on the odd number n
+     * for each seed in turn. Returns a non-trivial divisor and the stage
+     * that found it, or null if there was none or the deadline
+     * passed.
+     */
+    public static Divisor pPlusOne(BigInteger n, int b1, long b2, Deadline deadline) {
+        Montgomery mont = new Montgomery(n);
+        long[] two = mont.newElement();
+        mont.toMontgomery(BigInteger.valueOf(2), two);
+
+        for (int[] seed : SEEDS) {
+            BigInteger den = BigInteger.valueOf(seed[1]);
+            if (!n.gcd(den).equals(ONE)) continue;
+
+            long[] v = mont.newElement();
+            mont.toMontgomery(BigInteger.valueOf(seed[0]).multiply(den.modInverse(n)), v);
+
+            // Stage 1, v = V_E(P) with E the product of all prime powers up to b1
+            lucas(mont, v, Primes.powerProduct(b1), two, v);
+            long[] t = mont.newElement();
+            mont.subtractMod(v, two, t);
+            BigInteger g = Maths.gcd(mont.toBigInteger(t), n);
+            if (!g.equals(ONE) && !g.equals(n)) return new Divisor(g, "p+1 stage 1");
+            if (g.equals(n) || deadline.expired()) continue;
+
+            g = stage2(mont, v, two, b1, b2, deadline);
+            if (g == null) return null;
+            if (!g.equals(ONE) && !g.equals(n)) return new Divisor(g, "p+1 stage 2");
+        }
+
+        return null;
+    }
+
+    /**
+     * Baby-step giant-step stage 2 on Q = V_E(P). Since V_k(V_E) =
+     * V_kE and V_-j = V_j, p divides V_vD(Q) - V_j(Q) whenever the order
+     * of the group mod p divides E(vD - j) or E(vD + j). The differences
+     * are accumulated for every prime b1 < q = vD +- j <= b2. Returns gcd
+     * of the product with n, or null if stopped.
+     */
+    private static BigInteger stage2(Montgomery mont, long[] q, long[] two, int b1, long b2,
+            Deadline deadline) {
+        if (b2 > Integer.MAX_VALUE - D) b2 = Integer.MAX_VALUE - D;
+        Primes.ensure(b2 + D);
+
+        // Baby steps V_j for odd j < D/2 via V_j+2 = V_j V_2 - V_j-2
+        int half = D / 2;
+        long[][] baby = new long[half + 2][];
+        long[] v2 = mont.newElement();
+        lucasDouble(mont, q, two, v2);
+        baby[1] = q.clone();
+        baby[3] = mont.newElement();
+        mont.multiply(q, v2, baby[3]);
+        mont.subtractMod(baby[3], q, baby[3]); // V_3 = V_1 V_2 - V_1
+        for (int j=5; j<=half; j+=2) {
+            baby[j] = mont.newElement();
+            mont.multiply(baby[j - 2], v2, baby[j]);
+            mont.subtractMod(baby[j], baby[j - 4], baby[j]);
+        }
+
+        // Giant steps V_vD via V_(v+1)D = V_vD V_D - V_(v-1)D
+        long v0 = Math.max(b1 / D, 1);
+        long[] vd = mont.newElement();
+        long[] giant = mont.newElement();
+        long[] prev = mont.newElement();
+        long[] next = mont.newElement();
+        lucas(mont, q, BigInteger.valueOf(D), two, vd);
+        lucas(mont, q, BigInteger.valueOf(v0 * D), two, giant);
+        lucas(mont, q, BigInteger.valueOf((v0 - 1) * D), two, prev);
+
+        long[] acc = mont.newElement();
+        long[] t = mont.newElement();
+        mont.toMontgomery(ONE, acc);
+
+        for (long v=v0; v*D-half<=b2; ++v) {
+            long base = v * D;
+            for (int j=1; j<half; j+=2) {
+                if (j % 3 == 0 || j % 5 == 0 || j % 7 == 0) continue; // gcd(j, D) > 1
+                if (!Primes.isPrime((int) (base + j)) && !Primes.isPrime((int) (base - j))) continue;
+                if (base - j <= b1 && base + j <= b1) continue;
+
+                mont.subtractMod(giant, baby[j], t);
+                mont.multiply(acc, t, acc);
+            }
+
+            mont.multiply(giant, vd, next);
+            mont.subtractMod(next, prev, next);
+            mont.copy(giant, prev);
+            mont.copy(next, giant);
+
+            if (v % CHECK_INTERVAL == 0 && deadline.expired()) return null;
+        }
+
+        return Maths.gcd(mont.toBigInteger(acc), mont.modulus());
+    }
+
+    /**
+     * Computes out = V_k(P) with the Lucas ladder, keeping the pair
+     * (V_m, V_m+1) and using V_2m = V_m^2 - 2 and V_2m+1 = V_m V_m+1 - P.
+     * out may alias p.
+     */
+    private static void lucas(Montgomery mont, long[] p, BigInteger k, long[] two, long[] out) {
+        if (k.signum() == 0) {
+            mont.copy(two, out);
+            return;
+        }
+
+        long[] base = p.clone();
+        long[] a = p.clone(); // V_m
+        long[] b = mont.newElement(); // V_m+1
+        lucasDouble(mont, p, two, b);
+
+        for (int i=k.bitLength()-2; i>=0; --i) {
+            if (k.testBit(i)) {
+                mont.multiply(a, b, a);
+                mont.subtractMod(a, base, a);
+                lucasDouble(mont, b, two, b);
+            } else {
+                mont.multiply(a, b, b);
+                mont.subtractMod(b, base, b);
+                lucasDouble(mont, a, two, a);
+            }
+        }
+
+        mont.copy(a, out);
+    }
+
+    /**
+     * Computes out = V_2m = V_m^2 - 2. out may alias v.
+     */
+    private static void lucasDouble(Montgomery mont, long[] v, long[] two, long[] out) {
+        mont.square(v, out);
+        mont.subtractMod(out, two, out);
+    }
+}
@@ -1,5 +1,12 @@
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Class for performing Pollarad's Rho factorisation.
@@ -10,42 +17,229 @@ public class PollardRho {
     private static final BigInteger ONE  = BigInteger.ONE;
     private static final BigInteger TWO  = BigInteger.valueOf(2);
 
+    // Number of steps whose differences are multiplied together before
+    // a single gcd is taken
+    private static final int BATCH_SIZE = 128;
+
+    // Numbers up to this size are walked in Montgomery form on long[] limbs
+    private static final int MONTGOMERY_BITS = 256;
+
     private static final Random rand = new Random();
 
+    // Number of independent walks in parallel mode, -Drho.threads=N
+    private static int threads = Integer.getInteger("rho.threads",
+            Runtime.getRuntime().availableProcessors());
+    private static ExecutorService pool;
+
     /**
      * g(x) in Pollard rho, a congruence PRNG based on the given numbers.
      */
     private static BigInteger g(BigInteger x, BigInteger n, BigInteger c) {
-        return x.multiply(x).mod(n).add(c); // (x^2 mod n) + c
+        return x.multiply(x).add(c).mod(n); // (x^2 + c) mod n
     }
 
     /**
      * Finds one factor of the given number.
-     * n is the number to factorise.
+     * n is the number to factorise, deadline the point after which, or
+     * cancellation upon which, ONE is returned.
      */
-    public static BigInteger pollardRho(BigInteger n) {
-        // Randomise initial values for x's and c
-        BigInteger x = new BigInteger(n.bitLength(), rand);
-        BigInteger x2 = x;
-        BigInteger c = new BigInteger(n.bitLength(), rand);
-        BigInteger d; // Divisor
+    public static BigInteger pollardRho(BigInteger n, Deadline deadline) {
+        // Return if divisible by 2
+        if (n.mod(TWO).equals(ZERO)) return TWO;
+
+        if (n.bitLength() <= SmallFactor.MAX_BITS) return small(n, deadline);
+        return walk(n, rand, deadline);
+    }
 
+    /**
+     * Finds one factor of the given number by running independent walks,
+     * each with its own c and starting x, on all threads of the pool.
+     * The first non-trivial divisor found is returned and the remaining
+     * walks are cancelled. Returns ONE once the deadline has passed.
+     */
+    public static BigInteger pollardRhoParallel(BigInteger n, Deadline deadline) {
         // Return if divisible by 2
         if (n.mod(TWO).equals(ZERO)) return TWO;
 
+        // A word-sized walk takes microseconds, too little to share out
+        if (n.bitLength() <= SmallFactor.MAX_BITS) return small(n, deadline);
+
+        int walkers = threads;
+        if (walkers <= 1) return walk(n, rand, deadline);
+
+        List<Callable<BigInteger>> walks = new ArrayList<Callable<BigInteger>>(walkers);
+        for (int i=0; i<walkers; ++i)
+            walks.add(() -> walk(n, ThreadLocalRandom.current(), deadline));
+
+        try {
+            return pool().invokeAny(walks); // Cancels the walks still running
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ONE;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Rho walk failed for " + n, e.getCause());
+        }
+    }
+
+    /**
+     * Walks on n < 2^64 in longs, returning ONE if stopped.
+     */
+    private static BigInteger small(BigInteger n, Deadline deadline) {
+        long d = SmallFactor.rho(n.longValue(), deadline);
+        return d == 0 ? ONE : BigInteger.valueOf(d);
+    }
+
+    /**
+     * Sets the number of parallel walks used by pollardRhoParallel().
+     */
+    public static synchronized void setThreads(int numThreads) {
+        if (numThreads < 1)
+            throw new IllegalArgumentException("Need at least one thread: " + numThreads);
+
+        threads = numThreads;
+        if (pool != null) pool.shutdownNow();
+        pool = null;
+    }
+
+    /**
+     * Returns the walk pool, creating it on first use. Its threads are
+     * daemons so an idle pool does not keep the program alive.
+     */
+    private static synchronized ExecutorService pool() {
+        if (pool == null) {
+            pool = Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "rho-walk");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return pool;
+    }
+
+    /**
+     * Runs walks with random x and c until one finds a non-trivial
+     * divisor of the odd number n. Returns ONE if the deadline passed or
+     * the thread was interrupted.
+     */
+    private static BigInteger walk(BigInteger n, Random rand, Deadline deadline) {
+        BigInteger d; // Divisor
+
+        // A walk may end in d == n, in which case a new c is tried
         do {
-            // Quit early if too much time has been spent on the number
-            if (System.nanoTime() - Factor.prevTime > Factor.timeLimit) {
-                System.out.println("====== TIME LIMIT EXCEEDED ======");
-                return ONE;
+            // Randomise initial values for x and c
+            BigInteger x = new BigInteger(n.bitLength(), rand).mod(n);
+            BigInteger c = new BigInteger(n.bitLength(), rand).mod(n);
+
+            if (n.bitLength() <= MONTGOMERY_BITS)
+                d = brentMontgomery(n, x, c, deadline);
+            else
+                d = brent(n, x, c, deadline);
+            if (d == null) return ONE; // Stopped early
+        } while (d.equals(n));
+
+        return d;
+    }
+
+    /**
+     * Brent's variant of the rho walk starting at x with constant c.
+     * The differences |x - y| are accumulated into a running product
+     * mod n and a gcd is only taken every BATCH_SIZE steps. If the
+     * batch gcd hits n the last batch is replayed one step at a time.
+     * Returns a divisor of n, which is n itself if the walk failed, or
+     * null if the walk was stopped.
+     */
+    private static BigInteger brent(BigInteger n, BigInteger x, BigInteger c, Deadline deadline) {
+        BigInteger y = x;
+        BigInteger ys = y; // Start of the current batch, for backtracking
+        BigInteger q = ONE; // Running product of differences
+        BigInteger d = ONE;
+
+        // r is the current power of two cycle length
+        for (long r = 1; d.equals(ONE); r <<= 1) {
+            x = y;
+            for (long i=0; i<r; ++i) y = g(y, n, c);
+            if (Metrics.ENABLED) Metrics.RHO_STEPS.add(r);
+
+            for (long k=0; k<r && d.equals(ONE); k += BATCH_SIZE) {
+                // Quit early on timeout or cancellation
+                if (deadline.expired()) return null;
+
+                ys = y;
+                long steps = Math.min(BATCH_SIZE, r - k);
+                for (long i=0; i<steps; ++i) {
+                    y = g(y, n, c);
+                    q = q.multiply(x.subtract(y).abs()).mod(n); // q * |x - y| mod n
+                }
+                if (Metrics.ENABLED) Metrics.RHO_STEPS.add(steps);
+                d = Maths.gcd(q, n);
+            }
+        }
+
+        // The batch collapsed to n, redo it one gcd per step
+        if (d.equals(n)) {
+            do {
+                ys = g(ys, n, c);
+                d = Maths.gcd(x.subtract(ys).abs(), n);
+            } while (d.equals(ONE));
+        }
+
+        return d;
+    }
+
+    /**
+     * Same walk as brent(), but with every value kept in Montgomery form
+     * so the inner loop neither allocates nor divides. Values are only
+     * turned into BigIntegers for the gcds, which is safe since
+     * gcd(a * R, n) == gcd(a, n).
+     */
+    private static BigInteger brentMontgomery(BigInteger n, BigInteger x0, BigInteger c0,
+            Deadline deadline) {
+        Montgomery mont = new Montgomery(n);
+        long[] x = mont.newElement();
+        long[] y = mont.newElement();
+        long[] ys = mont.newElement();
+        long[] c = mont.newElement();
+        long[] q = mont.newElement();
+        long[] diff = mont.newElement();
+        mont.toMontgomery(x0, y);
+        mont.toMontgomery(c0, c);
+        mont.toMontgomery(ONE, q);
+        BigInteger d = ONE;
+
+        for (long r = 1; d.equals(ONE); r <<= 1) {
+            mont.copy(y, x);
+            for (long i=0; i<r; ++i) {
+                mont.square(y, y);
+                mont.add(y, c, y);
+            }
+            if (Metrics.ENABLED) Metrics.RHO_STEPS.add(r);
+
+            for (long k=0; k<r && d.equals(ONE); k += BATCH_SIZE) {
+                // Quit early on timeout or cancellation
+                if (deadline.expired()) return null;
+
+                mont.copy(y, ys);
+                long steps = Math.min(BATCH_SIZE, r - k);
+                for (long i=0; i<steps; ++i) {
+                    mont.square(y, y);
+                    mont.add(y, c, y);
+                    mont.subtractMod(x, y, diff);
+                    mont.multiply(q, diff, q);
+                }
+                if (Metrics.ENABLED) Metrics.RHO_STEPS.add(steps);
+                d = Maths.gcd(mont.toBigInteger(q), n);
             }
+        }
 
-            // Find x(i+1) and x(2*(i+1)) and increment running values
-            x = g(x, n, c).mod(n); // g(x) mod n
-            x2 = g(g(x2, n, c).mod(n), n, c).mod(n); // g(g(x2)) mod n
-            d = Maths.gcd(x.subtract(x2), n); // gcd(x-x2, n)
-            // Loop while gcd == 1, otherwise n is composite and a factor is found
-        } while (d.equals(ONE));
+        // The batch collapsed to n, redo it one gcd per step
+        if (d.equals(n)) {
+            do {
+                mont.square(ys, ys);
+                mont.add(ys, c, ys);
+                mont.subtractMod(x, ys, diff);
+                d = Maths.gcd(mont.toBigInteger(diff), n);
+            } while (d.equals(ONE));
+        }
 
         return d;
     }
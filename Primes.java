@@ -0,0 +1,206 @@
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntConsumer;
+
+/**
+ * Shared table of small primes from a segmented sieve of Eratosthenes.
+ * Only odd numbers are stored, one bit each, and the table is extended
+ * a segment at a time whenever a caller asks beyond its current end.
+ * Lookups do not lock, extensions publish a new table.
+ */
+public class Primes {
+
+    // Initial and minimum growth of the sieved range
+    private static final int SEGMENT = 1 << 20;
+
+    // The sieve covers [0, limit), bit i of composite set means 2i + 1 is composite
+    private static final class Table {
+        final long[] composite;
+        final int limit;
+
+        Table(long[] composite, int limit) {
+            this.composite = composite;
+            this.limit = limit;
+        }
+    }
+
+    private static volatile Table table = new Table(new long[] {1L}, 2); // 1 is not prime
+
+    // Products of all prime powers up to a bound, by bound
+    private static final ConcurrentHashMap<Integer, BigInteger> powerProducts =
+            new ConcurrentHashMap<Integer, BigInteger>();
+
+    /**
+     * Makes sure the sieve covers every number below limit.
+     */
+    public static void ensure(long limit) {
+        if (limit <= table.limit) return;
+        if (limit > Integer.MAX_VALUE - 1)
+            throw new IllegalArgumentException("Sieve limit too large: " + limit);
+        extend((int) limit);
+    }
+
+    /**
+     * Returns true if n is prime, extending the sieve up to n if needed.
+     */
+    public static boolean isPrime(int n) {
+        if (n < 2) return false;
+        if ((n & 1) == 0) return n == 2;
+        ensure((long) n + 1);
+        int i = n >>> 1;
+        return (table.composite[i >>> 6] & (1L << i)) == 0;
+    }
+
+    /**
+     * Returns the smallest prime larger than p.
+     */
+    public static int nextPrime(int p) {
+        if (p < 2) return 2;
+
+        int q = (p + 1) | 1;
+        for (;;) {
+            Table t = table;
+            if (q >= t.limit) {
+                ensure(Math.max((long) t.limit * 2, (long) q + 1));
+                continue;
+            }
+
+            // Skip whole words of composites at a time, bits past the
+            // end of the table are clear so the scan stops there too
+            int i = q >>> 1;
+            long word = ~t.composite[i >>> 6] >>> (i & 63);
+            if (word == 0) {
+                q += 2 * (64 - (i & 63));
+                continue;
+            }
+            q += 2 * Long.numberOfTrailingZeros(word);
+            if (q < t.limit) return q;
+        }
+    }
+
+    /**
+     * Returns all primes up to and including limit.
+     */
+    public static int[] upTo(int limit) {
+        if (limit < 2) return new int[0];
+        ensure((long) limit + 1);
+
+        int[] res = new int[Math.max(16, (int) (1.26 * limit / Math.log(limit)))];
+        int count = 0;
+        for (int p = 2; p <= limit; p = nextPrime(p)) {
+            if (count == res.length) res = Arrays.copyOf(res, 2 * count);
+            res[count++] = p;
+        }
+        return Arrays.copyOf(res, count);
+    }
+
+    /**
+     * Returns the product of the largest power of every prime that is at
+     * most bound, the stage 1 exponent of p - 1 and p + 1. Each bound is
+     * only computed once and shared between callers.
+     */
+    public static BigInteger powerProduct(int bound) {
+        return powerProducts.computeIfAbsent(bound, b -> {
+            ensure((long) b + 1);
+
+            // Collect powers into longs first, then multiply pairwise so
+            // the BigInteger products stay balanced
+            int[] primes = upTo(b);
+            BigInteger[] parts = new BigInteger[primes.length + 1];
+            int count = 0;
+            long word = 1;
+            for (int p : primes) {
+                long q = p;
+                while (q <= b / p) q *= p;
+                if (word > Long.MAX_VALUE / q) {
+                    parts[count++] = BigInteger.valueOf(word);
+                    word = 1;
+                }
+                word *= q;
+            }
+            parts[count++] = BigInteger.valueOf(word);
+
+            for (; count > 1; count = (count + 1) / 2) {
+                for (int i=0; i<count/2; ++i) parts[i] = parts[2 * i].multiply(parts[2 * i + 1]);
+                if ((count & 1) == 1) parts[count / 2] = parts[count - 1];
+            }
+            return parts[0];
+        });
+    }
+
+    /**
+     * Divides out every prime up to bound from n. Each prime found is
+     * passed to the callback once per power. Returns the cofactor.
+     */
+    public static BigInteger trialDivide(BigInteger n, int bound, IntConsumer found) {
+        ensure((long) bound + 1);
+
+        // Reduce n once per group of primes whose product fits in a long,
+        // then test the primes of the group against the small remainder
+        int p = 2;
+        while (p <= bound && n.compareTo(BigInteger.ONE) > 0) {
+            int start = p;
+            long product = 1;
+            while (p <= bound && product <= Long.MAX_VALUE / p) {
+                product *= p;
+                p = nextPrime(p);
+            }
+
+            long r = n.mod(BigInteger.valueOf(product)).longValue();
+            for (int q = start; q != p; q = nextPrime(q)) {
+                if (r % q != 0) continue;
+
+                BigInteger bq = BigInteger.valueOf(q);
+                BigInteger[] qr = n.divideAndRemainder(bq);
+                while (qr[1].signum() == 0) {
+                    found.accept(q);
+                    n = qr[0];
+                    qr = n.divideAndRemainder(bq);
+                }
+            }
+        }
+
+        return n;
+    }
+
+    /**
+     * Sieves the segment [table.limit, limit) and publishes the extended table.
+     */
+    private static synchronized void extend(int limit) {
+        Table old = table;
+        if (limit <= old.limit) return;
+
+        // Grow geometrically so repeated small extensions stay cheap
+        long grown = Math.max((long) old.limit * 2, (long) old.limit + SEGMENT);
+        limit = (int) Math.min(Math.max(limit, grown), Integer.MAX_VALUE - 1);
+
+        // Every base prime up to sqrt(limit) has had all smaller primes
+        // crossed off before it is reached, so the new table can supply
+        // its own base primes
+        long[] composite = Arrays.copyOf(old.composite, (limit / 2 + 64) / 64 + 1);
+        int from = old.limit;
+        for (int p = 3; (long) p * p < limit; p = nextPrimeIn(composite, limit, p)) {
+            // First odd multiple of p in the segment, at least p^2
+            long m = Math.max((long) p * p, ((long) from + p - 1) / p * p);
+            if ((m & 1) == 0) m += p;
+            for (; m < limit; m += 2L * p) {
+                int i = (int) (m >>> 1);
+                composite[i >>> 6] |= 1L << i;
+            }
+        }
+
+        table = new Table(composite, limit);
+    }
+
+    /**
+     * Next odd prime after p in a table that is still being extended.
+     */
+    private static int nextPrimeIn(long[] composite, int limit, int p) {
+        for (int q = p + 2; q < limit; q += 2) {
+            int i = q >>> 1;
+            if ((composite[i >>> 6] & (1L << i)) == 0) return q;
+        }
+        return Integer.MAX_VALUE;
+    }
+}
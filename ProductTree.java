@@ -0,0 +1,76 @@
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bernstein's batch smoothness test. The product of all the numbers is
+ * built as a binary tree, the product P of the primes up to a bound is
+ * reduced down the tree to P mod x for every number x, and a few
+ * squarings mod x then give the part of x made of those primes. This
+ * costs about as much as a few multiplications of P, however many
+ * numbers share it, instead of a search per number.
+ */
+public class ProductTree {
+
+    private ProductTree() {
+    }
+
+    /**
+     * Returns for each number its largest divisor with no prime factor
+     * above bound, ONE if it has none. The numbers must be positive.
+     */
+    public static BigInteger[] smoothParts(BigInteger[] numbers, int bound) {
+        BigInteger[] parts = new BigInteger[numbers.length];
+        if (numbers.length == 0) return parts;
+
+        List<BigInteger[]> tree = productTree(numbers);
+        BigInteger[] rems = remainders(Primes.powerProduct(bound), tree);
+
+        for (int i=0; i<numbers.length; ++i) {
+            BigInteger x = numbers[i];
+
+            // y = P^(2^e) mod x with 2^e >= log2 x, so that every prime
+            // up to bound divides y at least as often as it divides x
+            BigInteger y = rems[i];
+            for (int e=32-Integer.numberOfLeadingZeros(x.bitLength()); e>0 && y.signum()!=0; --e)
+                y = y.multiply(y).mod(x);
+            parts[i] = y.signum() == 0 ? x : Maths.gcd(x, y);
+        }
+        return parts;
+    }
+
+    /**
+     * Returns the levels of the product tree, the numbers themselves
+     * first and their product last.
+     */
+    static List<BigInteger[]> productTree(BigInteger[] numbers) {
+        List<BigInteger[]> tree = new ArrayList<BigInteger[]>();
+        BigInteger[] level = numbers.clone();
+        tree.add(level);
+
+        while (level.length > 1) {
+            BigInteger[] up = new BigInteger[(level.length + 1) / 2];
+            for (int i=0; i<level.length/2; ++i) up[i] = level[2 * i].multiply(level[2 * i + 1]);
+            if ((level.length & 1) == 1) up[up.length - 1] = level[level.length - 1];
+            tree.add(up);
+            level = up;
+        }
+        return tree;
+    }
+
+    /**
+     * Returns p mod x for every leaf x of the tree, reducing p by each
+     * node on the way down so that most divisions are by small numbers.
+     */
+    static BigInteger[] remainders(BigInteger p, List<BigInteger[]> tree) {
+        BigInteger[] rems = {p.mod(tree.get(tree.size() - 1)[0])};
+
+        for (int k=tree.size()-2; k>=0; --k) {
+            BigInteger[] level = tree.get(k);
+            BigInteger[] down = new BigInteger[level.length];
+            for (int i=0; i<level.length; ++i) down[i] = rems[i / 2].mod(level[i]);
+            rems = down;
+        }
+        return rems;
+    }
+}
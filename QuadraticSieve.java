@@ -1,251 +1,694 @@
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Random;
 
 /**
- * Implementation of the quadratic sieve algorithm for factoring
+ * Implementation of the self-initialising quadratic sieve for factoring
  * composite numbers into prime factors.
+ *
+ * Polynomials are g(x) = A x^2 + 2 B x + C with A a product of s factor
+ * base primes and C = (B^2 - n) / A, so that (A x + B)^2 = A g(x) mod n.
+ * Each A gives 2^(s-1) values of B, and switching between them only
+ * needs one addition per factor base prime to update the roots. The
+ * relations are combined by BlockLanczos.
+ *
+ * Values left with one large prime after trial division, or on larger
+ * numbers with two, are kept as partial relations. They are turned into
+ * full relations when they form a cycle in the LargePrimeGraph.
+ *
+ * The block size, small prime bound and threshold come from SieveParams,
+ * and blocks are scanned for candidates by SieveScan.
  */
 public class QuadraticSieve {
 
-    private static final boolean DEBUG = true;
+    private static final BigInteger ZERO = BigInteger.ZERO;
+    private static final BigInteger ONE  = BigInteger.ONE;
+    private static final BigInteger TWO  = BigInteger.valueOf(2);
 
-    private static final BigInteger ZERO  = BigInteger.ZERO;
-    private static final BigInteger ONE   = BigInteger.ONE;
-    private static final BigInteger TWO   = BigInteger.valueOf(2);
-    private static final BigInteger THREE = BigInteger.valueOf(3);
-    private static final BigInteger FOUR  = BigInteger.valueOf(4);
-    private static final BigInteger FIVE  = BigInteger.valueOf(5);
-    private static final BigInteger EIGHT = BigInteger.valueOf(8);
+    // Factor base size and sieve half-width M by number of decimal digits
+    private static final int[][] PARAMS = {
+        {20, 120, 16384}, {30, 200, 16384}, {40, 400, 32768},
+        {50, 1000, 32768}, {60, 2000, 65536}, {70, 4000, 65536},
+        {80, 7000, 98304}, {90, 12000, 131072}, {100, 20000, 196608}
+    };
 
-    private static BigInteger B; // Smoothness bound
-    private static int K;
+    // Relations collected beyond the number of columns of the matrix
+    private static final int EXTRA_RELATIONS = 64;
 
-    private static ArrayList<BigInteger> primes      = new ArrayList<BigInteger>();
-    private static ArrayList<BigInteger> roots       = new ArrayList<BigInteger>();
-    private static ArrayList<BigInteger> qs          = new ArrayList<BigInteger>();
-    private static ArrayList<BigInteger> bs          = new ArrayList<BigInteger>();
-    private static ArrayList<BigInteger> bSmoothNums = new ArrayList<BigInteger>();
+    // Preferred size of the primes that make up A
+    private static final int A_PRIME_SIZE = 2000;
 
-    private static ArrayList<ArrayList<BigInteger>> factorTable = new ArrayList<ArrayList<BigInteger>>();
+    // Smallest prime of A, fixed rather than the small prime bound so that
+    // every SieveParams candidate sieves the same polynomials
+    private static final int MIN_A_PRIME = 128;
 
-    private static final Random rand = new Random();
+    // Large primes are kept up to this multiple of the largest factor base prime
+    private static final int LARGE_PRIME_MULTIPLIER = 64;
+
+    // Numbers from this size on also keep cofactors made of two large primes
+    private static final int DOUBLE_LARGE_DIGITS = 60;
 
     /**
-     * L function for quadratic sieve.
+     * A relation y^2 = (-1)^e0 * prod p_i^e_i * large mod n, with the
+     * factors stored as column indices, repeated once per power. large is
+     * 1 for a full relation and the product of the large primes for a
+     * partial one.
      */
-    private static double L(BigInteger n) {
-        // e^(sqrt(ln(n) * ln(ln(n))))
-        return Math.exp(Math.sqrt(Maths.ln(n) * Math.log(Maths.ln(n))));
+    private static final class Relation {
+        final BigInteger y;
+        final int[] columns;
+        final long large;
+
+        Relation(BigInteger y, int[] columns) {
+            this(y, columns, 1);
+        }
+
+        Relation(BigInteger y, int[] columns, long large) {
+            this.y = y;
+            this.columns = columns;
+            this.large = large;
+        }
+    }
+
+    private final BigInteger n;
+    private final SieveParams params;
+    private final SieveScan scan = SieveScan.get();
+    private final Random rand; // Chooses the primes of A
+    private final int fbSize; // Number of primes in the factor base
+    private final int m;      // Sieve interval is [-M, M)
+    private final int[] primes;
+    private final int[] sqrtN; // sqrt(n) mod p
+    private final byte[] logp; // Rounded log2(p)
+    private int threshold;
+
+    // Current polynomial
+    private BigInteger a, b, c;
+    private int[] aIndices;
+    private BigInteger[] bl;
+    private int[][] bainv2; // 2 * B_l * A^-1 mod p
+    private final int[] root1, root2; // Roots of g mod p, offset by M
+    private final int[] next1, next2; // Next sieve offsets within a block
+    private final boolean[] inA;
+
+    private final ArrayList<Relation> relations = new ArrayList<Relation>();
+    private final ArrayList<Relation> partials = new ArrayList<Relation>();
+    private final LargePrimeGraph graph = new LargePrimeGraph();
+    private long largeBound;    // Largest large prime kept
+    private long cofactorBound; // Largest cofactor kept, above largeBound only with two large primes
+    private final HashSet<BigInteger> seen = new HashSet<BigInteger>();
+    private final HashSet<BigInteger> usedA = new HashSet<BigInteger>();
+
+    private BigInteger found; // Factor of n hit while building the factor base
+
+    private QuadraticSieve(BigInteger n, SieveParams params, Random rand) {
+        this.n = n;
+        this.params = params;
+        this.rand = rand;
+
+        int digits = n.toString().length();
+        int[] sizes = PARAMS[PARAMS.length - 1];
+        for (int[] p : PARAMS) {
+            if (digits <= p[0]) {
+                sizes = p;
+                break;
+            }
+        }
+        fbSize = sizes[1];
+        m = sizes[2];
+
+        primes = new int[fbSize];
+        sqrtN = new int[fbSize];
+        logp = new byte[fbSize];
+        root1 = new int[fbSize];
+        root2 = new int[fbSize];
+        next1 = new int[fbSize];
+        next2 = new int[fbSize];
+        inA = new boolean[fbSize];
     }
 
     /**
-     * Given positive odd integer m and integer a, this method
-     * return the Jacobi symbol. For an m odd prime, this is also
-     * the Legendre symbol.
+     * Finds one factor of the given number using the quadratic sieve
+     * algorithm. Returns ONE once the deadline has passed.
      */
-    private static BigInteger jacobi(BigInteger a, BigInteger m) {
-        if (DEBUG) System.out.println("jacobi a, m: " + a + ", " + m);
+    public static BigInteger quadraticSieve(BigInteger n, Deadline deadline) {
+        // Return if divisible by 2
+        if (n.mod(TWO).equals(ZERO)) return TWO;
 
-        if (m.compareTo(ZERO) <= 0 || m.mod(TWO).equals(ZERO)) return ZERO;
+        // Squares have no useful congruences of squares
+        BigInteger root = n.sqrt();
+        if (root.multiply(root).equals(n)) return root;
 
-        // Reduction loops
-        // TODO Used in book
-        // a = a.mod(m);
-        BigInteger t = ONE;
+        // The parameters do not go below 20 digits, rho is faster there
+        if (n.bitLength() < 64) return PollardRho.pollardRho(n, deadline);
 
-        if (a.compareTo(ZERO) < 0) {
-            a = a.negate();
-            if (m.mod(FOUR).equals(THREE)) t = t.negate();
-        }
+        return new QuadraticSieve(n, SieveParams.get(), new Random()).factor(deadline);
+    }
+
+    /**
+     * Runs the sieve until a factor is found.
+     */
+    private BigInteger factor(Deadline deadline) {
+        initialise();
+        if (found != null) return found;
+
+        int wanted = fbSize + 1 + EXTRA_RELATIONS; // Columns are -1 and the primes
+        byte[] block = new byte[params.blockSize()];
+        int[] hits = new int[params.blockSize()];
+
+        for (;;) {
+            while (relations.size() < wanted) {
+                // Quit early if too much time has been spent on the number
+                if (deadline.expired()) return ONE;
+
+                newA();
+                int polys = 1 << (aIndices.length - 1);
+                for (int i=0; i<polys; ++i) {
+                    if (i > 0) nextB(i);
+                    sieve(block, hits);
+                }
+                if (found != null) return found; // A large prime shared a factor with n
+            }
+
+            BigInteger d = combine();
+            if (d != null) return d;
 
-        while (!a.equals(ZERO)) {
-            // TODO Should this be skipped for a == 2 or a == 0?
-            // while (a.mod(TWO).equals(ZERO)) { // a even
-            while (a.mod(TWO).equals(ZERO) && !a.equals(TWO) && !a.equals(ZERO)) { // a even
-                a = a.mod(TWO);
-                BigInteger mTemp = m.mod(EIGHT);
+            // Every dependency was trivial, collect some more relations
+            wanted += EXTRA_RELATIONS;
+        }
+    }
 
-                // m mod 8 in {3, 5}
-                if (mTemp.equals(THREE) || mTemp.equals(FIVE)) t = t.negate();
+    /**
+     * Returns the number of full relations, direct or from cycles, found
+     * per second while sieving n with the given parameters for aCount
+     * values of A. The A are drawn from a fixed seed, so that runs with
+     * different parameters sieve the same polynomials. Used by
+     * SieveParams.tune().
+     */
+    static double relationRate(BigInteger n, SieveParams params, int aCount) {
+        QuadraticSieve qs = new QuadraticSieve(n, params, new Random(aCount));
+        qs.initialise();
+        byte[] block = new byte[params.blockSize()];
+        int[] hits = new int[params.blockSize()];
+
+        long start = System.nanoTime();
+        for (int k=0; k<aCount; ++k) {
+            qs.newA();
+            int polys = 1 << (qs.aIndices.length - 1);
+            for (int i=0; i<polys; ++i) {
+                if (i > 0) qs.nextB(i);
+                qs.sieve(block, hits);
             }
+        }
+        return qs.relations.size() * 1e9 / (System.nanoTime() - start);
+    }
 
-            // Swap variables
-            BigInteger aTemp = a;
-            a = m;
-            m = aTemp;
+    /**
+     * Builds the factor base of 2 and the odd primes p with (n/p) = 1,
+     * together with a square root of n mod p and log2(p).
+     */
+    private void initialise() {
+        int count = 0;
+        int[] words = Maths.words(n);
+
+        for (int p = 2; count < fbSize; p = Primes.nextPrime(p)) {
+            int r = Maths.mod(words, p);
+            if (r == 0) {
+                found = BigInteger.valueOf(p); // Lucky
+                return;
+            }
 
-            // a cong m cong 3 mod 4
-            if (a.mod(FOUR).equals(THREE) && m.mod(FOUR).equals(THREE)) t = t.negate();
-            a = a.mod(m);
+            if (p == 2) {
+                primes[count] = 2;
+                sqrtN[count] = 1;
+            } else if (Maths.jacobi(r, p) == 1) {
+                primes[count] = p;
+                sqrtN[count] = sqrtMod(r, p);
+            } else {
+                continue;
+            }
+            logp[count] = (byte) Math.round(Math.log(p) / Math.log(2));
+            ++count;
         }
 
-        // Termination
-        if (m.equals(ONE)) return t;
-        return ZERO;
+        // g(x) is at most about M sqrt(n / 2) over the interval
+        double logMax = Math.log(m) / Math.log(2) + n.bitLength() / 2.0 - 0.5;
+        double logLargest = Math.log(primes[fbSize - 1]) / Math.log(2);
+        threshold = (int) (logMax - params.thresholdFudge() * logLargest);
+
+        // Every prime below the largest in the factor base has been divided
+        // out, so a cofactor below its square is prime
+        long largest = primes[fbSize - 1];
+        largeBound = Math.min(LARGE_PRIME_MULTIPLIER * largest, largest * largest - 1);
+        cofactorBound = largeBound;
+        if (n.toString().length() >= DOUBLE_LARGE_DIGITS) {
+            // Two primes of about sqrt(multiplier) times the largest, which
+            // takes a lower threshold to reach
+            cofactorBound = LARGE_PRIME_MULTIPLIER * largest * largest;
+            threshold -= (int) Math.round(Math.log(cofactorBound) / Math.log(2) - params.thresholdFudge() * logLargest);
+        }
+        threshold = Math.max(1, Math.min(255, threshold)); // Sieve entries are unsigned bytes
     }
 
     /**
-     * Finds a root +-a_i with (a_i)^2 cong n (mod p_i) given an
-     * odd prime p and a quadratic residue a mod p.
+     * Chooses a new A = q_1 ... q_s close to sqrt(2n) / M from the factor
+     * base, then the B_l and the roots of the first polynomial.
      */
-    private static BigInteger findRoot(BigInteger a, BigInteger p) {
-        if (DEBUG) System.out.println("findRoot a, p: " + a + ", " + p);
+    private void newA() {
+        BigInteger target = n.shiftLeft(1).sqrt().divide(BigInteger.valueOf(m));
+        double logTarget = Maths.ln(target);
+
+        // Find the factor base window the q_l are drawn from
+        int maxQ = Math.min(A_PRIME_SIZE, primes[fbSize / 2]);
+        int s = Math.max(1, (int) Math.round(logTarget / Math.log(maxQ)));
+        double qTarget = Math.exp(logTarget / s);
+        int first = 1;
+        while (first < fbSize - 1 && primes[first] < MIN_A_PRIME) ++first;
+        int lo = first;
+        while (lo < fbSize - 1 && primes[lo] < qTarget / 1.5) ++lo;
+        int hi = lo;
+        while (hi < fbSize && primes[hi] < qTarget * 1.5) ++hi;
+        while (hi - lo < 2 * s + 4 && (lo > first || hi < fbSize)) {
+            if (lo > first) --lo;
+            if (hi < fbSize) ++hi;
+        }
 
-        // Find random integer [0, p - 1] such that Jacobi(t^2 - a, p) == -1
-        BigInteger t;
+        BigInteger candidate;
+        int[] indices = new int[s];
+        int tries = 0;
         do {
-            t = new BigInteger(p.bitLength(), rand);
-            if (DEBUG) System.out.println("found t: " + t);
-        } while ((t.compareTo(p.subtract(ONE)) >= 0) ||
-                !jacobi(t.pow(2).subtract(a), p).equals(ONE.negate()));
-
-        // Find a square root in F
-        // x = (t + sqrt(t^2 - a))^((p + 1) / 2)
-        if (DEBUG) System.out.println("findRoot a: " + a);
-        BigInteger x = t.pow(2).subtract(a);
-        if (x.compareTo(ZERO) < 0) x = x.negate(); // TODO Is this allowed?
-        x = Maths.sqrt(x).add(t).pow(p.add(ONE).divide(TWO).intValue()); // pow must be int
-        return x;
-    }
-
-    /**
-     * Initialises the quadratic sieve algorithm.
-     */
-    private static void initialise(BigInteger n) {
-        // B could be tuned after taste instead
-        // L(n)^(1/2) rounded up
-        B = BigInteger.valueOf((int) Math.ceil(Math.sqrt(L(n))));
-        if (DEBUG) System.out.println("initialise B: " + B);
-        primes.add(TWO); // p_1 = 2
-        roots.add(ONE); // a_1 = 1
-
-        // Find all odd primes <= B for which Jacobi == 1 and label them
-        for (BigInteger p = THREE; p.compareTo(B) <= 0; p = p.add(ONE)) {
-            if(MillerRabin.isProbablePrime(p) && jacobi(n, p).equals(ONE)) {
-                primes.add(p);
-                if (DEBUG) System.out.println("Add prime p: " + p);
-            }
-        }
-
-        K = primes.size();
-        // TODO Correct table size?
-        factorTable = new ArrayList<ArrayList<BigInteger>>(K);
-        for (int i=1; i<K; ++i) { // 0-indexed 2 to K inclusive
-            // Generate quadratic residue a mod p
-            roots.add(findRoot(n, primes.get(i)));
-        }
-    }
-
-    /**
-     * Sieves the sequence for smooth B-values.
-     * Finds primes in the interval (L, R).
-     * L and R should be even and satisfy R > L, B | R - L, L > P = sqrt(R).
-     */
-    private static void sieve(BigInteger n, BigInteger L, BigInteger R) {
-        BigInteger T;
-
-        // Initialise the offsets
-        // Go from p_1 = 2 the final prime
-        for (int k=2; k<K; ++k) {
-            BigInteger p = primes.get(k);
-            BigInteger q = L.add(ONE).add(p).divide(TWO).negate().mod(p);
-            qs.add(q);
-        }
-
-        // Process blocks
-        T = L;
-        while (T.compareTo(R) < 0) {
-            // Initialise with 1s
-            // for (int j=0; BigInteger.valueOf(j).compareTo(B) < 0; ++j) {
-            //     BigInteger b = ONE;
-            //     bs.add(b);
-            // }
-
-            // TODO Should the list of factors be initialised as b?
-            for (int k=2; k<K; ++k) { // k = 2 to pi(P)
-                for (BigInteger j=qs.get(k); j.compareTo(B) < 0; j = j.add(primes.get(k)))
-                    bs.add(j.intValue(), ZERO); // TODO Index off by one?
-                BigInteger q = qs.get(k);
-                BigInteger p = primes.get(k);
-                q.subtract(B).mod(p);
-                qs.add(k, q);
-            }
-
-            // j in [0, B-1]
-            for (BigInteger j = ZERO; j.compareTo(B) < 0; j = j.add(ONE)) {
-                // BigInteger b = bs.get(j.intValue());
-                // Output the prime = T + 2j + 1
-                BigInteger p = T.add(j.multiply(TWO)).add(ONE);
-
-                // Save factor if it's the first or if it's smaller than the current factor
-                // if (b.equals(ONE)) bs.add(j.intValue(), p);
-                // else if (p.compareTo(b) < 0) bs.add(j.intValue(), p);
-
-                // Add to lists p, p2, ..., p * floor(n/p)
-                BigInteger limit = n.divide(p).multiply(p);
-                BigInteger k = p.subtract(ONE); // 0-indexed
-                BigInteger mult = ONE;
-                while (k.compareTo(limit) < 0) {
-                    ArrayList<BigInteger> ft = factorTable.get(k.intValue());
-                    ft.add(p);
-                    k = k.multiply(mult);
-                    mult = mult.add(ONE);
-                }
+            // s - 1 random primes, the last one brings A close to target
+            candidate = ONE;
+            for (int l=0; l<s-1; ++l) {
+                int i;
+                do {
+                    i = lo + rand.nextInt(hi - lo);
+                } while (contains(indices, l, i));
+                indices[l] = i;
+                candidate = candidate.multiply(BigInteger.valueOf(primes[i]));
+            }
 
-                // Add to lists p^1, p^2, ..., n
-                limit = n;
-                k = p.subtract(ONE);
-                int a = 1;
-                while (k.compareTo(limit) < 0) {
-                    ArrayList<BigInteger> ft = factorTable.get(k.intValue());
-                    ft.add(p);
-                    k = k.pow(a);
-                    // Do not sieve with p^a > B
-                    if (k.compareTo(B) > 0) break;
-                    ++a;
-                }
+            double want = Math.exp(logTarget - Maths.ln(candidate));
+            int best = -1;
+            for (int i=first; i<fbSize; ++i) {
+                if (contains(indices, s - 1, i)) continue;
+                if (best < 0 || Math.abs(primes[i] - want) < Math.abs(primes[best] - want))
+                    best = i;
             }
+            indices[s - 1] = best;
+            candidate = candidate.multiply(BigInteger.valueOf(primes[best]));
+        } while (usedA.contains(candidate) && ++tries < 1000);
+
+        usedA.add(candidate);
+        a = candidate;
+        aIndices = indices;
+        Arrays.fill(inA, false);
+        for (int i : indices) inA[i] = true;
+
+        // B_l = (A / q_l) * gamma with gamma = t_l * (A / q_l)^-1 mod q_l
+        bl = new BigInteger[s];
+        b = ZERO;
+        for (int l=0; l<s; ++l) {
+            int q = primes[indices[l]];
+            BigInteger bq = BigInteger.valueOf(q);
+            BigInteger aq = a.divide(bq);
+            long gamma = (long) sqrtN[indices[l]] * modInverse(aq.mod(bq).intValue(), q) % q;
+            if (gamma > q / 2) gamma = q - gamma;
+            bl[l] = aq.multiply(BigInteger.valueOf(gamma));
+            b = b.add(bl[l]);
+        }
+        c = b.multiply(b).subtract(n).divide(a);
+
+        // Roots (+-t - B) A^-1 mod p, shifted so index 0 is x = -M
+        bainv2 = new int[s][fbSize];
+        for (int i=0; i<fbSize; ++i) {
+            int p = primes[i];
+            if (p == 2 || inA[i]) continue;
+
+            BigInteger bp = BigInteger.valueOf(p);
+            long ainv = modInverse(a.mod(bp).intValue(), p);
+            for (int l=0; l<s; ++l)
+                bainv2[l][i] = (int) (2 * bl[l].mod(bp).longValue() * ainv % p);
+
+            long bmod = b.mod(bp).longValue();
+            long t = sqrtN[i];
+            long shift = m % p;
+            root1[i] = (int) ((ainv * ((t - bmod + p) % p) + shift) % p);
+            root2[i] = (int) ((ainv * ((2 * p - t - bmod) % p) + shift) % p);
+        }
+    }
 
-            // Pick out the B-smooth numbers
-            for (BigInteger j = ZERO; j.compareTo(B) < 0; j = j.add(ONE)) {
-                ArrayList<BigInteger> ft = factorTable.get(j.intValue());
+    /**
+     * Switches to the i-th B for the current A following a Gray code, so
+     * that only one B_l changes sign per step.
+     */
+    private void nextB(int i) {
+        int v = Integer.numberOfTrailingZeros(i);
+        boolean negate = (((i ^ (i >> 1)) >> v) & 1) == 1;
+        int[] delta = bainv2[v];
+
+        // B' = B -+ 2 B_v moves every root by +- 2 B_v A^-1
+        if (negate) {
+            b = b.subtract(bl[v].shiftLeft(1));
+            for (int j=0; j<fbSize; ++j) {
+                int p = primes[j];
+                int r = root1[j] + delta[j];
+                root1[j] = r >= p ? r - p : r;
+                r = root2[j] + delta[j];
+                root2[j] = r >= p ? r - p : r;
+            }
+        } else {
+            b = b.add(bl[v].shiftLeft(1));
+            for (int j=0; j<fbSize; ++j) {
+                int p = primes[j];
+                int r = root1[j] - delta[j];
+                root1[j] = r < 0 ? r + p : r;
+                r = root2[j] - delta[j];
+                root2[j] = r < 0 ? r + p : r;
+            }
+        }
+        c = b.multiply(b).subtract(n).divide(a);
+    }
 
-                BigInteger prod = ONE;
-                for (int k=0; k<ft.size(); ++k) {
-                    prod = prod.multiply(ft.get(k));
-                }
+    /**
+     * Sieves [-M, M) for the current polynomial one block at a time and
+     * trial divides every position whose sum of logs reaches the threshold.
+     * hits is room for the positions found in one block.
+     */
+    private void sieve(byte[] block, int[] hits) {
+        int blockSize = block.length;
+        int first = firstSieved();
+        for (int i=first; i<fbSize; ++i) {
+            next1[i] = root1[i];
+            next2[i] = root2[i];
+        }
 
-                // If the product of factors equals the number it is B-smooth
-                if (prod.equals(j)) bSmoothNums.add(j);
+        for (int start=0; start<2*m; start+=blockSize) {
+            Arrays.fill(block, (byte) 0);
+
+            for (int i=first; i<fbSize; ++i) {
+                if (inA[i]) continue;
+                int p = primes[i];
+                byte lp = logp[i];
+
+                int j = next1[i];
+                for (; j<blockSize; j+=p) block[j] += lp;
+                next1[i] = j - blockSize;
+
+                j = next2[i];
+                for (; j<blockSize; j+=p) block[j] += lp;
+                next2[i] = j - blockSize;
             }
 
-            T = T.add(B.multiply(TWO));
+            // The last block may run past M
+            int count = scan.scan(block, Math.min(blockSize, 2 * m - start), threshold, hits);
+            for (int k=0; k<count; ++k) trialDivide(start + hits[k]);
         }
     }
 
     /**
-     * Finds one factor of the given number using the quadratic sieve
-     * algorithm.
+     * Trial divides g(x) at the given offset into the interval and keeps
+     * the relation if it factors completely over the factor base.
      */
-    public static BigInteger quadraticSieve(BigInteger n) {
-        // Return if divisible by 2
-        if (n.mod(TWO).equals(ZERO)) return TWO;
+    private void trialDivide(int offset) {
+        BigInteger x = BigInteger.valueOf(offset - m);
+        BigInteger gx = a.multiply(x).add(b.shiftLeft(1)).multiply(x).add(c);
+        if (gx.signum() == 0) return;
+
+        int[] columns = new int[64];
+        int count = 0;
+
+        if (gx.signum() < 0) {
+            columns[count++] = 0;
+            gx = gx.negate();
+        }
+
+        // (A x + B)^2 = A g(x), so every prime of A divides once more
+        for (int i : aIndices) {
+            if (count == columns.length) columns = Arrays.copyOf(columns, 2 * count);
+            columns[count++] = i + 1;
+        }
+
+        for (int i=0; i<fbSize; ++i) {
+            int p = primes[i];
+            boolean divides;
+            if (p == 2 || inA[i]) {
+                divides = gx.mod(BigInteger.valueOf(p)).signum() == 0;
+            } else {
+                int r = offset % p;
+                divides = r == root1[i] || r == root2[i];
+            }
+            if (!divides) continue;
+
+            BigInteger bp = BigInteger.valueOf(p);
+            BigInteger[] qr = gx.divideAndRemainder(bp);
+            while (qr[1].signum() == 0) {
+                gx = qr[0];
+                if (count == columns.length) columns = Arrays.copyOf(columns, 2 * count);
+                columns[count++] = i + 1;
+                qr = gx.divideAndRemainder(bp);
+            }
+        }
+
+        BigInteger y = a.multiply(x).add(b);
+        if (gx.equals(ONE)) {
+            if (seen.add(y.abs())) {
+                relations.add(new Relation(y, Arrays.copyOf(columns, count)));
+                if (Metrics.ENABLED) Metrics.QS_RELATIONS.increment();
+            }
+            return;
+        }
+
+        if (gx.bitLength() > 62 || gx.longValue() > cofactorBound) return;
+        long r = gx.longValue();
+        long p1 = r, p2 = 1;
+        if (r > largeBound) {
+            // Two primes above the factor base, or one that is too large
+            if (SmallFactor.isPrime(r)) return;
+            long s = SmallFactor.sqrt(r);
+            p1 = s * s == r ? s : SmallFactor.squfof(r);
+            if (p1 == 0) return;
+            p2 = r / p1;
+            if (p1 > largeBound || p2 > largeBound) return;
+        }
+        if (!seen.add(y.abs())) return;
+
+        if (p1 == p2) {
+            // A square cofactor needs no partner, and would be a loop in the graph
+            BigInteger p = BigInteger.valueOf(p1);
+            BigInteger g = Maths.gcd(p, n);
+            if (!g.equals(ONE)) {
+                found = g;
+                return;
+            }
+            relations.add(new Relation(y.multiply(p.modInverse(n)).mod(n), Arrays.copyOf(columns, count)));
+            if (Metrics.ENABLED) Metrics.QS_RELATIONS.increment();
+            return;
+        }
+
+        partials.add(new Relation(y, Arrays.copyOf(columns, count), r));
+        int[] cycle = graph.add(p1, p2, partials.size() - 1);
+        if (cycle != null) addCycle(cycle);
+    }
+
+    /**
+     * Multiplies the partial relations along a cycle of the large prime
+     * graph into a full one. Every large prime occurs twice in the
+     * product, so dividing y by their product leaves only factor base
+     * primes on the right.
+     */
+    private void addCycle(int[] cycle) {
+        BigInteger y = ONE;
+        BigInteger large = ONE;
+        int count = 0;
+        for (int i : cycle) count += partials.get(i).columns.length;
+
+        int[] columns = new int[count];
+        count = 0;
+        for (int i : cycle) {
+            Relation rel = partials.get(i);
+            y = y.multiply(rel.y).mod(n);
+            large = large.multiply(BigInteger.valueOf(rel.large));
+            System.arraycopy(rel.columns, 0, columns, count, rel.columns.length);
+            count += rel.columns.length;
+        }
+
+        BigInteger root = large.sqrt();
+        BigInteger g = Maths.gcd(root, n);
+        if (!g.equals(ONE)) {
+            found = g;
+            return;
+        }
+
+        relations.add(new Relation(y.multiply(root.modInverse(n)).mod(n), columns));
+        if (Metrics.ENABLED) Metrics.QS_RELATIONS.increment();
+    }
+
+    /**
+     * Finds dependencies between the exponent vectors mod 2 and tries each
+     * of them for a congruence of squares. Returns a non-trivial factor,
+     * or null if every dependency failed.
+     */
+    private BigInteger combine() {
+        int rows = fbSize + 1;
+        int[][] columns = new int[relations.size()][];
+        int[] parity = new int[rows];
+
+        // Only the primes occurring to an odd power go into the matrix
+        for (int r=0; r<relations.size(); ++r) {
+            int[] cols = relations.get(r).columns;
+            for (int col : cols) parity[col] ^= 1;
+
+            int[] odd = new int[cols.length];
+            int count = 0;
+            for (int col : cols) {
+                if (parity[col] == 1) {
+                    odd[count++] = col;
+                    parity[col] = 0;
+                }
+            }
+            columns[r] = Arrays.copyOf(odd, count);
+            Arrays.sort(columns[r]);
+        }
+
+        long[] deps = BlockLanczos.nullSpace(columns, rows);
+
+        long used = 0;
+        for (long w : deps) used |= w;
+        for (int k=0; k<64; ++k) {
+            if ((used & (1L << k)) == 0) continue;
+
+            BigInteger d = squareRoot(deps, 1L << k);
+            if (d != null) return d;
+        }
+        return null;
+    }
+
+    /**
+     * Multiplies the relations marked by the given bit of deps, takes the
+     * square root of the right hand side and returns gcd(X - Y, n) if it
+     * is a non-trivial factor.
+     */
+    private BigInteger squareRoot(long[] deps, long bit) {
+        BigInteger x = ONE;
+        int[] exponents = new int[fbSize + 1];
+
+        for (int r=0; r<relations.size(); ++r) {
+            if ((deps[r] & bit) == 0) continue;
+
+            Relation rel = relations.get(r);
+            x = x.multiply(rel.y).mod(n);
+            for (int col : rel.columns) ++exponents[col];
+        }
+
+        BigInteger y = ONE;
+        for (int i=0; i<fbSize; ++i) {
+            int e = exponents[i + 1];
+            if (e == 0) continue;
+            y = y.multiply(BigInteger.valueOf(primes[i]).modPow(BigInteger.valueOf(e / 2), n)).mod(n);
+        }
+
+        BigInteger d = Maths.gcd(x.subtract(y).mod(n), n);
+        if (d.equals(ONE) || d.equals(n)) return null;
+        return d;
+    }
+
+    /**
+     * Index of the first factor base prime that is sieved.
+     */
+    private int firstSieved() {
+        int i = 0;
+        while (i < fbSize - 1 && primes[i] < params.smallPrime()) ++i;
+        return i;
+    }
+
+    /**
+     * Returns true if x is among the first len entries of arr.
+     */
+    private static boolean contains(int[] arr, int len, int x) {
+        for (int i=0; i<len; ++i) {
+            if (arr[i] == x) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns a square root of the quadratic residue a mod the odd prime p,
+     * with one exponentiation for p = 3 mod 4 and Atkin's formula for
+     * p = 5 mod 8, and the Tonelli-Shanks algorithm otherwise.
+     */
+    private static int sqrtMod(long a, int p) {
+        if (p % 4 == 3) return (int) powMod(a, (p + 1) / 4, p);
+        if (p % 8 == 5) {
+            // v = (2a)^((p-5)/8), i = 2a v^2 is a square root of -1, and
+            // a v (i - 1) one of a
+            long v = powMod(2 * a, (p - 5) / 8, p);
+            long i = 2 * a % p * v % p * v % p;
+            return (int) (a % p * v % p * ((i - 1 + p) % p) % p);
+        }
+
+        // p - 1 = q * 2^s with q odd
+        int q = p - 1;
+        int s = 0;
+        while ((q & 1) == 0) {
+            q >>= 1;
+            ++s;
+        }
+
+        int z = 2;
+        while (Maths.jacobi(z, p) != -1) ++z;
+
+        long c = powMod(z, q, p);
+        long r = powMod(a, (q + 1) / 2, p);
+        long t = powMod(a, q, p);
+        int e = s;
+        while (t != 1) {
+            int i = 0;
+            long t2 = t;
+            while (t2 != 1) {
+                t2 = t2 * t2 % p;
+                ++i;
+            }
+            long bb = c;
+            for (int j=0; j<e-i-1; ++j) bb = bb * bb % p;
+            r = r * bb % p;
+            c = bb * bb % p;
+            t = t * c % p;
+            e = i;
+        }
+        return (int) r;
+    }
 
-        initialise(n);
-        if (DEBUG) System.out.println("Initialisation done");
-        // TODO Give proper arguments
-        // sieve(n, ONE, ONE);
-        if (DEBUG) System.out.println("Sieving done");
-
-        // Reset arrays of values
-        primes = new ArrayList<BigInteger>();
-        roots = new ArrayList<BigInteger>();
-        qs = new ArrayList<BigInteger>();
-        bs = new ArrayList<BigInteger>();
-        bSmoothNums = new ArrayList<BigInteger>();
-
-        if (DEBUG) System.out.println("Quadratic sieve done");
-        return ONE;
+    /**
+     * Returns a^e mod p for p < 2^31.
+     */
+    private static long powMod(long a, long e, int p) {
+        long res = 1;
+        a %= p;
+        while (e > 0) {
+            if ((e & 1) == 1) res = res * a % p;
+            a = a * a % p;
+            e >>= 1;
+        }
+        return res;
+    }
+
+    /**
+     * Returns a^-1 mod p for a coprime to p.
+     */
+    private static long modInverse(int a, int p) {
+        long t = 0, newT = 1;
+        long r = p, newR = a;
+        while (newR != 0) {
+            long quot = r / newR;
+            long tmp = t - quot * newT;
+            t = newT;
+            newT = tmp;
+            tmp = r - quot * newR;
+            r = newR;
+            newR = tmp;
+        }
+        return t < 0 ? t + p : t;
     }
 }
@@ -0,0 +1,253 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * On-disk store of factorisations, so that interrupted runs can be
+ * resumed and finished numbers are never factored twice.
+ *
+ * Records are appended to results.log and never rewritten, one line
+ * each as written by Factorisation.toRecord(). A later record for the
+ * same n replaces an earlier one. results.idx is a memory-mapped open
+ * addressing hash table from a 64-bit hash of n to the offset of its
+ * latest record. The index remembers how much of the log it
+ * covers and catches up from the log on open, so a crash between the two
+ * writes loses nothing.
+ */
+public class ResultCache implements AutoCloseable {
+
+    private static final long MAGIC = 0x46414354494458L; // "FACTIDX"
+    private static final int HEADER = 32;  // magic, capacity, count, indexed log length
+    private static final int SLOT = 16;    // hash, offset + 1 (0 when empty)
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final File logFile, indexFile;
+    private final RandomAccessFile log;
+    private RandomAccessFile indexRaf;
+    private MappedByteBuffer index;
+    private long capacity, count;
+
+    // Read by readLine(), which one record nearly always fits
+    private final ByteBuffer chunk = ByteBuffer.allocate(4096);
+
+    /**
+     * Opens the cache in the given directory, creating it if needed.
+     */
+    public ResultCache(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Cannot create cache directory " + dir);
+
+        logFile = new File(dir, "results.log");
+        indexFile = new File(dir, "results.idx");
+        log = new RandomAccessFile(logFile, "rw");
+
+        mapIndex(INITIAL_CAPACITY, false);
+        catchUp();
+    }
+
+    /**
+     * Returns the latest stored factorisation of n, or null if there is none.
+     */
+    public synchronized Factorisation get(BigInteger n) throws IOException {
+        long hash = hash(n);
+        for (long i = slotOf(hash); ; i = (i + 1) % capacity) {
+            long h = index.getLong(slotPosition(i));
+            long offset = index.getLong(slotPosition(i) + 8) - 1;
+            if (offset < 0) return null;
+            if (h != hash) continue;
+
+            Factorisation result = Factorisation.parseRecord(readLine(offset));
+            if (result != null && result.number().equals(n)) return result;
+        }
+    }
+
+    /**
+     * Appends the given factorisation, complete or not, to the store.
+     */
+    public synchronized void put(Factorisation result) throws IOException {
+        String record = result.toRecord() + "\n";
+
+        // The record must be on disk before the index points at it
+        long offset = log.length();
+        log.seek(offset);
+        log.write(record.getBytes(StandardCharsets.US_ASCII));
+        log.getFD().sync();
+
+        insert(result.number(), offset);
+        index.putLong(24, log.length());
+        index.force();
+    }
+
+    /**
+     * Flushes the index and closes both files.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        index.force();
+        indexRaf.close();
+        log.close();
+    }
+
+    /**
+     * Indexes every record written after the index was last updated, and
+     * drops a trailing record cut short by a crash.
+     */
+    private void catchUp() throws IOException {
+        long pos = index.getLong(24);
+        long end = log.length();
+        if (pos > end) { // Index is newer than the log, start over
+            mapIndex(INITIAL_CAPACITY, true);
+            pos = 0;
+        }
+
+        while (pos < end) {
+            String line = readLine(pos);
+            long next = pos + line.length() + 1;
+            if (next > end) { // No newline, the write never finished
+                log.setLength(pos);
+                break;
+            }
+
+            Factorisation result = Factorisation.parseRecord(line);
+            if (result != null) insert(result.number(), pos);
+            pos = next;
+        }
+
+        index.putLong(24, log.length());
+        index.force();
+    }
+
+    /**
+     * Points the slot for n at the given record offset.
+     */
+    private void insert(BigInteger n, long offset) throws IOException {
+        if (2 * (count + 1) > capacity) grow();
+
+        long hash = hash(n);
+        for (long i = slotOf(hash); ; i = (i + 1) % capacity) {
+            int pos = slotPosition(i);
+            long h = index.getLong(pos);
+            long old = index.getLong(pos + 8) - 1;
+
+            if (old < 0) {
+                index.putLong(pos, hash);
+                index.putLong(pos + 8, offset + 1);
+                index.putLong(16, ++count);
+                return;
+            }
+            if (h == hash) {
+                Factorisation existing = Factorisation.parseRecord(readLine(old));
+                if (existing != null && existing.number().equals(n)) {
+                    index.putLong(pos + 8, offset + 1);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the index at twice the capacity.
+     */
+    private void grow() throws IOException {
+        long[] hashes = new long[(int) count];
+        long[] offsets = new long[(int) count];
+        int k = 0;
+        for (long i=0; i<capacity; ++i) {
+            long offset = index.getLong(slotPosition(i) + 8);
+            if (offset == 0) continue;
+            hashes[k] = index.getLong(slotPosition(i));
+            offsets[k++] = offset;
+        }
+        long indexed = index.getLong(24);
+
+        mapIndex(capacity * 2, true);
+        for (int j=0; j<k; ++j) {
+            long i = slotOf(hashes[j]);
+            while (index.getLong(slotPosition(i) + 8) != 0) i = (i + 1) % capacity;
+            index.putLong(slotPosition(i), hashes[j]);
+            index.putLong(slotPosition(i) + 8, offsets[j]);
+        }
+        count = k;
+        index.putLong(16, count);
+        index.putLong(24, indexed);
+    }
+
+    /**
+     * Maps the index file, creating an empty table of the given capacity if
+     * the file is new, invalid or reset is set.
+     */
+    private void mapIndex(long newCapacity, boolean reset) throws IOException {
+        if (indexRaf != null) indexRaf.close();
+        indexRaf = new RandomAccessFile(indexFile, "rw");
+
+        if (!reset && indexRaf.length() >= HEADER) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            indexRaf.getChannel().read(header, 0);
+            long cap = header.getLong(8);
+            if (header.getLong(0) == MAGIC && indexRaf.length() == HEADER + cap * SLOT) {
+                capacity = cap;
+                count = header.getLong(16);
+                index = indexRaf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, indexRaf.length());
+                return;
+            }
+        }
+
+        capacity = newCapacity;
+        count = 0;
+        indexRaf.setLength(0);
+        indexRaf.setLength(HEADER + capacity * SLOT);
+        index = indexRaf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, indexRaf.length());
+        index.putLong(0, MAGIC);
+        index.putLong(8, capacity);
+        index.putLong(16, 0);
+        index.putLong(24, 0);
+    }
+
+    /**
+     * Reads the record starting at the given offset, without the newline.
+     */
+    private String readLine(long offset) throws IOException {
+        FileChannel channel = log.getChannel();
+        StringBuilder sb = new StringBuilder();
+        for (long pos = offset; ; pos += chunk.position()) {
+            chunk.clear();
+            if (channel.read(chunk, pos) <= 0) break;
+
+            byte[] bytes = chunk.array();
+            int end = 0;
+            while (end < chunk.position() && bytes[end] != '\n') ++end;
+            sb.append(new String(bytes, 0, end, StandardCharsets.US_ASCII));
+            if (end < chunk.position()) break;
+        }
+        return sb.toString();
+    }
+
+    private long slotOf(long hash) {
+        return Long.remainderUnsigned(hash, capacity);
+    }
+
+    /**
+     * Returns the byte position of a slot. A mapping holds at most 2 GB,
+     * which is over a hundred million slots.
+     */
+    private static int slotPosition(long slot) {
+        return (int) (HEADER + slot * SLOT);
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the bytes of n.
+     */
+    private static long hash(BigInteger n) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : n.toByteArray()) {
+            h ^= b & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+}
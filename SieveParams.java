@@ -0,0 +1,267 @@
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * The quadratic sieve parameters that depend on the machine more than on
+ * the number: the sieve block length, best when it fits a cache level,
+ * the bound below which primes are not sieved, their logs being absorbed
+ * by the threshold, and how many bits of the largest factor base prime
+ * the sieve value may fall short of log2 |g(x)| and still be trial
+ * divided.
+ *
+ * With -Dqs.tuning=FILE they are read from FILE, or measured by tune() on
+ * first use, which Factor, BatchFactor and Worker make at startup, and
+ * written there, so that later runs start tuned. A file with missing or
+ * unusable values is tuned again:
+ *
+ *   blockSize = 49152
+ *   smallPrime = 32
+ *   thresholdFudge = 1.8
+ *   l1Cache = 49152             L1 data cache tuned on, retuned if it differs
+ *
+ * Without the property the defaults are used, with a block the size of
+ * the L1 data cache. java SieveParams [FILE] tunes and prints them.
+ */
+public class SieveParams {
+
+    private static final boolean DEBUG = true;
+
+    private static final String TUNING_FILE = System.getProperty("qs.tuning");
+
+    // Sieving time per run while tuning, in nanoseconds, and runs per
+    // candidate, of which the fastest counts since interference only slows
+    private static final long MEASURE_TIME = 500000000L;
+    private static final int REPEATS = 3;
+
+    // Sieving time before the first measurement, the JIT needs about 10 s
+    // on one core to settle
+    private static final long WARM_TIME = 12000000000L;
+
+    // A candidate must beat the best so far by this fraction to replace it
+    private static final double MARGIN = 0.05;
+
+    // Tuning is done on a balanced semiprime of this many bits, about 55 digits
+    private static final int TUNING_BITS = 182;
+
+    private static final int[] SMALL_PRIMES = {8, 16, 32, 64, 128};
+
+    // Block sizes accepted from a tuning file
+    private static final int MIN_BLOCK_SIZE = 1024;
+    private static final int MAX_BLOCK_SIZE = 1 << 24;
+    private static final double[] THRESHOLD_FUDGES = {1.4, 1.6, 1.8, 2.0, 2.2, 2.4};
+
+    private static SieveParams params;
+
+    // Tuning number and workload, set by tune()
+    private static BigInteger n;
+    private static int aCount;
+
+    private final int blockSize;
+    private final int smallPrime;
+    private final double thresholdFudge;
+
+    public SieveParams(int blockSize, int smallPrime, double thresholdFudge) {
+        this.blockSize = blockSize;
+        this.smallPrime = smallPrime;
+        this.thresholdFudge = thresholdFudge;
+    }
+
+    public int blockSize() {
+        return blockSize;
+    }
+
+    public int smallPrime() {
+        return smallPrime;
+    }
+
+    public double thresholdFudge() {
+        return thresholdFudge;
+    }
+
+    /**
+     * Returns the built-in parameters for this host.
+     */
+    public static SieveParams defaults() {
+        return new SieveParams(l1Cache(), 32, 1.8);
+    }
+
+    /**
+     * Returns the parameters the sieve should use, loading or tuning them
+     * the first time if -Dqs.tuning is set.
+     */
+    public static synchronized SieveParams get() {
+        if (params != null) return params;
+        if (TUNING_FILE == null) return params = defaults();
+
+        File file = new File(TUNING_FILE);
+        try {
+            params = load(file);
+            if (params == null) {
+                params = tune();
+                params.save(file);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot use the sieve tuning file " + file, e);
+        }
+        return params;
+    }
+
+    /**
+     * Reads parameters saved by save(), or returns null if the file does
+     * not exist, was tuned for another L1 cache size or holds missing or
+     * unusable values.
+     */
+    static SieveParams load(File file) throws IOException {
+        if (!file.exists()) return null;
+
+        Properties props = new Properties();
+        try (Reader in = new FileReader(file)) {
+            props.load(in);
+        }
+        if (!String.valueOf(l1Cache()).equals(props.getProperty("l1Cache", "").trim())) return null;
+
+        SieveParams loaded;
+        try {
+            loaded = new SieveParams(Integer.parseInt(props.getProperty("blockSize", "").trim()),
+                    Integer.parseInt(props.getProperty("smallPrime", "").trim()),
+                    Double.parseDouble(props.getProperty("thresholdFudge", "").trim()));
+        } catch (NumberFormatException e) {
+            if (DEBUG) System.err.println("=== Retuning, missing or malformed sieve parameters in " + file);
+            return null;
+        }
+        if (!loaded.isValid()) {
+            if (DEBUG) System.err.println("=== Retuning, unusable sieve parameters in " + file + ": " + loaded);
+            return null;
+        }
+        return loaded;
+    }
+
+    /**
+     * Returns whether the sieve can run with these parameters.
+     */
+    boolean isValid() {
+        return blockSize >= MIN_BLOCK_SIZE && blockSize <= MAX_BLOCK_SIZE && smallPrime >= 2
+                && thresholdFudge > 0 && thresholdFudge < Double.POSITIVE_INFINITY;
+    }
+
+    void save(File file) throws IOException {
+        Properties props = new Properties();
+        props.setProperty("blockSize", String.valueOf(blockSize));
+        props.setProperty("smallPrime", String.valueOf(smallPrime));
+        props.setProperty("thresholdFudge", String.valueOf(thresholdFudge));
+        props.setProperty("l1Cache", String.valueOf(l1Cache()));
+        try (Writer out = new FileWriter(file)) {
+            props.store(out, "Quadratic sieve parameters tuned by SieveParams");
+        }
+    }
+
+    /**
+     * Measures full relations per second of sieving on a fixed test
+     * number, and improves one parameter at a time from the defaults:
+     * the block size over half to four times the L1 data cache, then the
+     * small prime bound, then the threshold. Every run sieves the same
+     * polynomials, after the JIT has warmed up. Takes about half a minute.
+     */
+    public static SieveParams tune() {
+        Random rand = new Random(TUNING_BITS); // The same number on every run
+        BigInteger p = MillerRabin.nextProbablePrime(new BigInteger(TUNING_BITS / 2, rand).setBit(TUNING_BITS / 2 - 1));
+        BigInteger q = MillerRabin.nextProbablePrime(new BigInteger(TUNING_BITS / 2, rand).setBit(TUNING_BITS / 2 - 1));
+        n = p.multiply(q);
+
+        // Warm up, sizing the workload to MEASURE_TIME as the sieve speeds up
+        SieveParams best = defaults();
+        aCount = 1;
+        for (long end = System.nanoTime() + WARM_TIME; System.nanoTime() < end; ) {
+            long start = System.nanoTime();
+            QuadraticSieve.relationRate(n, best, aCount);
+            aCount = (int) Math.max(1, Math.round((double) aCount * MEASURE_TIME / (System.nanoTime() - start)));
+        }
+        double bestRate = rate(best);
+
+        int l1 = l1Cache();
+        for (int blockSize : new int[] {l1 / 2, 2 * l1, 4 * l1}) {
+            SieveParams candidate = new SieveParams(blockSize, best.smallPrime, best.thresholdFudge);
+            double r = rate(candidate);
+            if (r > (1 + MARGIN) * bestRate) {
+                best = candidate;
+                bestRate = r;
+            }
+        }
+        for (int smallPrime : SMALL_PRIMES) {
+            if (smallPrime == best.smallPrime) continue;
+            SieveParams candidate = new SieveParams(best.blockSize, smallPrime, best.thresholdFudge);
+            double r = rate(candidate);
+            if (r > (1 + MARGIN) * bestRate) {
+                best = candidate;
+                bestRate = r;
+            }
+        }
+        for (double fudge : THRESHOLD_FUDGES) {
+            if (fudge == best.thresholdFudge) continue;
+            SieveParams candidate = new SieveParams(best.blockSize, best.smallPrime, fudge);
+            double r = rate(candidate);
+            if (r > (1 + MARGIN) * bestRate) {
+                best = candidate;
+                bestRate = r;
+            }
+        }
+
+        if (DEBUG) System.err.println("=== Sieve tuned: " + best);
+        return best;
+    }
+
+    private static double rate(SieveParams candidate) {
+        double r = 0;
+        for (int i=0; i<REPEATS; ++i) r = Math.max(r, QuadraticSieve.relationRate(n, candidate, aCount));
+        if (DEBUG) System.err.printf("=== %s: %.0f relations/s%n", candidate, r);
+        return r;
+    }
+
+    /**
+     * Returns the size of the L1 data cache in bytes as reported by Linux,
+     * or 32 KB if it is not known.
+     */
+    static int l1Cache() {
+        File[] caches = new File("/sys/devices/system/cpu/cpu0/cache").listFiles();
+        if (caches == null) return 32768;
+
+        for (File cache : caches) {
+            try {
+                if (!read(cache, "level").equals("1") || !read(cache, "type").equals("Data")) continue;
+                String size = read(cache, "size");
+                if (size.endsWith("K")) return 1024 * Integer.parseInt(size.substring(0, size.length() - 1));
+                return Integer.parseInt(size);
+            } catch (IOException | NumberFormatException e) {
+                // Not a cache description we understand
+            }
+        }
+        return 32768;
+    }
+
+    private static String read(File dir, String name) throws IOException {
+        return new String(Files.readAllBytes(new File(dir, name).toPath())).trim();
+    }
+
+    @Override
+    public String toString() {
+        return "block " + blockSize + ", small primes < " + smallPrime + ", threshold fudge " + thresholdFudge;
+    }
+
+    /**
+     * Tunes the parameters, prints them and saves them to the given file.
+     */
+    public static void main(String[] args) throws IOException {
+        SieveParams tuned = tune();
+        System.out.println(tuned + " (" + SieveScan.get().name() + " scan)");
+        if (args.length == 1) tuned.save(new File(args[0]));
+    }
+}
@@ -0,0 +1,70 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Finds the entries of a sieve block that reach the threshold. This
+ * version reads the block eight bytes at a time as a long and only looks
+ * at the bytes of words with a high enough bit set, which skips nearly
+ * all of the block.
+ *
+ * VectorSieveScan, in vector/, compares a whole SIMD register of bytes at
+ * a time with jdk.incubator.vector. It is compiled and run separately:
+ *
+ *   javac --add-modules jdk.incubator.vector -cp . -d . vector/VectorSieveScan.java
+ *   java --add-modules jdk.incubator.vector ...
+ *
+ * get() loads it by name when both were done, and falls back to this
+ * class otherwise or with -Dqs.vector=false.
+ */
+public class SieveScan {
+
+    private static final VarHandle LONGS =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final SieveScan INSTANCE = load();
+
+    protected SieveScan() {
+    }
+
+    public static SieveScan get() {
+        return INSTANCE;
+    }
+
+    private static SieveScan load() {
+        if (!Boolean.parseBoolean(System.getProperty("qs.vector", "true"))) return new SieveScan();
+        try {
+            return (SieveScan) Class.forName("VectorSieveScan").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return new SieveScan(); // Not compiled, or the module is missing
+        }
+    }
+
+    public String name() {
+        return "scalar";
+    }
+
+    /**
+     * Writes the offsets j < length with block[j] >= threshold, taken as
+     * unsigned, to hits in ascending order and returns how many there
+     * are. 1 <= threshold <= 255, and hits has room for length entries.
+     */
+    public int scan(byte[] block, int length, int threshold, int[] hits) {
+        // A byte reaching the threshold has its highest bit or one above set
+        long mask = (0x100 - Integer.highestOneBit(threshold)) * 0x0101010101010101L;
+
+        int count = 0;
+        int j = 0;
+        for (; j+8<=length; j+=8) {
+            long word = (long) LONGS.get(block, j);
+            if ((word & mask) == 0) continue;
+            for (int k=j; k<j+8; ++k) {
+                if ((block[k] & 0xFF) >= threshold) hits[count++] = k;
+            }
+        }
+        for (; j<length; ++j) {
+            if ((block[j] & 0xFF) >= threshold) hits[count++] = j;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,292 @@
+import java.math.BigInteger;
+
+/**
+ * Primality and factoring for numbers below 2^64 in plain longs, read as
+ * unsigned, without BigInteger or any allocation. Products are reduced in
+ * Montgomery form with R = 2^64, using Math.multiplyHigh for the high
+ * half, so every multiplication mod n costs three multiplies and no
+ * division.
+ *
+ * Cofactors this small turn up after almost every split of a getSSN
+ * value, and going through BigInteger for them costs more than the
+ * arithmetic itself.
+ */
+public class SmallFactor {
+
+    // Largest size handled here, n < 2^64 as an unsigned long
+    public static final int MAX_BITS = 64;
+
+    // Bases making Miller-Rabin exact for all n < 2^64, found by Sinclair
+    private static final long[] BASES = {2, 325, 9375, 28178, 450775, 9780504, 1795265022};
+
+    // Below this SQUFOF is tried before rho, it is faster on small numbers
+    private static final int SQUFOF_BITS = 40;
+
+    // Square-free multipliers tried by SQUFOF, the products of 3, 5, 7, 11
+    private static final int[] MULTIPLIERS = {1, 3, 5, 7, 11, 15, 21, 33, 35, 55, 77, 105, 165, 231, 385, 1155};
+
+    // Rho steps between gcds and between deadline checks
+    private static final int BATCH_SIZE = 128;
+
+    private static final long MAX_SQRT = 3037000499L; // floor(sqrt(2^63 - 1))
+
+    private SmallFactor() {
+    }
+
+    /**
+     * Returns true if n is prime, exactly, for n < 2^64 read as unsigned.
+     */
+    public static boolean isPrime(long n) {
+        if (Long.compareUnsigned(n, 64) < 0) return n > 1 && (0x28208A20A08A28ACL >>> n & 1) != 0;
+        long r = Long.remainderUnsigned(n, 105); // 3 * 5 * 7
+        if ((n & 1) == 0 || r % 3 == 0 || r % 5 == 0 || r % 7 == 0) return false;
+
+        long nPrime = inverse(n);
+        long one = Long.remainderUnsigned(-1L, n) + 1; // R mod n
+        long minusOne = n - one;
+        long r2 = r2(n, one);
+
+        int t = Long.numberOfTrailingZeros(n - 1);
+        long u = (n - 1) >>> t;
+
+        for (long base : BASES) {
+            long a = Long.remainderUnsigned(base, n);
+            if (a == 0) continue;
+
+            long x = pow(multiply(a, r2, n, nPrime), u, one, n, nPrime);
+            if (x == one || x == minusOne) continue;
+
+            int i = 1;
+            for (; i<t; ++i) {
+                x = multiply(x, x, n, nPrime);
+                if (x == minusOne) break;
+                if (x == one) return false;
+            }
+            if (i == t) return false; // Definitely composite
+        }
+        return true;
+    }
+
+    /**
+     * Returns a non-trivial divisor of the composite n < 2^64, and
+     * the method that found it, or null if the deadline passed first.
+     */
+    public static Divisor split(long n, Deadline deadline) {
+        if ((n & 1) == 0) return new Divisor(BigInteger.valueOf(2), "trial");
+
+        long d;
+        if (64 - Long.numberOfLeadingZeros(n) <= SQUFOF_BITS) {
+            d = squfof(n);
+            if (d > 1) return new Divisor(BigInteger.valueOf(d), "squfof");
+        }
+
+        d = rho(n, deadline);
+        if (d > 1) return new Divisor(BigInteger.valueOf(d), "rho");
+
+        // Rho gave up, which leaves SQUFOF on the larger numbers
+        d = squfof(n);
+        return d > 1 ? new Divisor(BigInteger.valueOf(d), "squfof") : null;
+    }
+
+    /**
+     * Brent's rho walk on x^2 + c in Montgomery form, trying c = 1, 2, ...
+     * until a walk finds a non-trivial divisor of the odd composite n.
+     * Returns 0 if the deadline passed first.
+     */
+    public static long rho(long n, Deadline deadline) {
+        long nPrime = inverse(n);
+        long one = Long.remainderUnsigned(-1L, n) + 1;
+
+        for (long c = one; ; c = add(c, one, n)) {
+            long x = 0, y = add(one, one, n), ys = y;
+            long q = one;
+            long d = 1;
+
+            for (long r = 1; d == 1; r <<= 1) {
+                x = y;
+                for (long i=0; i<r; ++i) y = add(multiply(y, y, n, nPrime), c, n);
+
+                for (long k=0; k<r && d == 1; k += BATCH_SIZE) {
+                    if (deadline.expired()) return 0;
+
+                    ys = y;
+                    long steps = Math.min(BATCH_SIZE, r - k);
+                    for (long i=0; i<steps; ++i) {
+                        y = add(multiply(y, y, n, nPrime), c, n);
+                        q = multiply(q, difference(x, y), n, nPrime);
+                    }
+                    if (Metrics.ENABLED) Metrics.RHO_STEPS.add(steps);
+                    d = Gcd.binaryGcd(q, n);
+                }
+            }
+
+            // The batch collapsed to n, redo it one gcd per step
+            if (d == n) {
+                do {
+                    ys = add(multiply(ys, ys, n, nPrime), c, n);
+                    d = Gcd.binaryGcd(difference(x, ys), n);
+                } while (d == 1);
+            }
+            if (d != n) return d;
+        }
+    }
+
+    /**
+     * Shanks' square forms factorisation of the odd n < 2^62, trying each
+     * multiplier k with kn < 2^62 in turn. Returns a non-trivial divisor,
+     * or 0 if every multiplier failed or n is larger.
+     */
+    public static long squfof(long n) {
+        if (n < 0) return 0; // 2^63 and up, beyond sqrt() as well
+        long s = sqrt(n);
+        if (s * s == n) return s;
+
+        for (int k : MULTIPLIERS) {
+            if (n > (Long.MAX_VALUE >>> 1) / k) break;
+            long kn = k * n;
+            long p0 = sqrt(kn);
+            long q = kn - p0 * p0;
+            if (q == 0) continue; // kn is a square, k and n share a factor
+
+            long pPrev = p0, p = p0, qPrev = 1;
+            long bound = 6 * sqrt(2 * sqrt(kn));
+
+            // Forward cycle until a square Q at an even step
+            long r = 0;
+            long i = 2;
+            for (; i<bound; ++i) {
+                long b = (p0 + p) / q;
+                p = b * q - p;
+                long qNext = qPrev + b * (pPrev - p);
+                qPrev = q;
+                q = qNext;
+                pPrev = p;
+
+                r = sqrt(q);
+                if ((i & 1) == 0 && r * r == q) break;
+            }
+            if (i >= bound) continue;
+
+            // Reverse cycle from the square root form until P repeats
+            long b = (p0 - p) / r;
+            p = b * r + p;
+            pPrev = p;
+            qPrev = r;
+            q = (kn - p * p) / r;
+            for (i=0; i<bound; ++i) {
+                b = (p0 + p) / q;
+                pPrev = p;
+                p = b * q - p;
+                long qNext = qPrev + b * (pPrev - p);
+                qPrev = q;
+                q = qNext;
+                if (p == pPrev) break;
+            }
+            if (i >= bound) continue;
+
+            long d = Gcd.binaryGcd(n, qPrev);
+            if (d != 1 && d != n) return d;
+        }
+        return 0;
+    }
+
+    /**
+     * Returns floor(sqrt(n)) for n >= 0.
+     */
+    static long sqrt(long n) {
+        long r = Math.min((long) Math.sqrt((double) n), MAX_SQRT);
+        while (r * r > n) --r;
+        while (r < MAX_SQRT && (r + 1) * (r + 1) <= n) ++r;
+        return r;
+    }
+
+    /**
+     * Returns Long.toUnsignedString(x) as a BigInteger.
+     */
+    static BigInteger toBigInteger(long x) {
+        BigInteger b = BigInteger.valueOf(x);
+        return x >= 0 ? b : b.add(BigInteger.ONE.shiftLeft(64));
+    }
+
+    /**
+     * Returns a b R^-1 mod n for a, b < n < 2^64, all unsigned.
+     */
+    private static long multiply(long a, long b, long n, long nPrime) {
+        long lo = a * b;
+        long m = lo * nPrime;
+        // a b - m n is divisible by R, as the low words are equal, and
+        // lies in (-n R, n R), so one conditional add of n reduces it
+        long hi, mn;
+        if (n > 0) {
+            hi = Math.multiplyHigh(a, b); // Both are below 2^63
+            mn = Math.multiplyHigh(m, n) + ((m >> 63) & n);
+        } else {
+            hi = multiplyHigh(a, b);
+            mn = multiplyHigh(m, n);
+        }
+        return Long.compareUnsigned(hi, mn) < 0 ? hi - mn + n : hi - mn;
+    }
+
+    /**
+     * Returns the high word of the unsigned product a b.
+     */
+    private static long multiplyHigh(long a, long b) {
+        return Math.multiplyHigh(a, b) + ((a >> 63) & b) + ((b >> 63) & a);
+    }
+
+    private static long add(long a, long b, long n) {
+        long s = a + b;
+        // s wrapped if it is below a, then s - n wraps back to a + b - n
+        return Long.compareUnsigned(s, a) < 0 || Long.compareUnsigned(s, n) >= 0 ? s - n : s;
+    }
+
+    private static long difference(long a, long b) {
+        return Long.compareUnsigned(a, b) > 0 ? a - b : b - a;
+    }
+
+    /**
+     * Returns x^e in Montgomery form, with one = R mod n.
+     */
+    private static long pow(long x, long e, long one, long n, long nPrime) {
+        long result = one;
+        for (; e != 0; e >>>= 1) {
+            if ((e & 1) != 0) result = multiply(result, x, n, nPrime);
+            x = multiply(x, x, n, nPrime);
+        }
+        return result;
+    }
+
+    /**
+     * Returns x^e mod n for odd n < 2^64, x < n and e >= 0, unsigned.
+     */
+    static long modPow(long x, BigInteger e, long n) {
+        long nPrime = inverse(n);
+        long one = Long.remainderUnsigned(-1L, n) + 1;
+        long base = multiply(x, r2(n, one), n, nPrime);
+
+        long result = one;
+        for (int i=e.bitLength()-1; i>=0; --i) {
+            result = multiply(result, result, n, nPrime);
+            if (e.testBit(i)) result = multiply(result, base, n, nPrime);
+        }
+        return multiply(result, 1, n, nPrime); // Out of Montgomery form
+    }
+
+    /**
+     * Returns n^-1 mod 2^64 for odd n.
+     */
+    private static long inverse(long n) {
+        long inv = n; // Correct to 3 bits, each step doubles that
+        for (int i=0; i<5; ++i) inv *= 2 - n * inv;
+        return inv;
+    }
+
+    /**
+     * Returns R^2 mod n by doubling R mod n another 64 times.
+     */
+    private static long r2(long n, long one) {
+        long r = one;
+        for (int i=0; i<64; ++i) r = add(r, r, n);
+        return r;
+    }
+}
@@ -0,0 +1,212 @@
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * The schedule of methods used to split a composite cofactor. Stages are
+ * tried in order, each only on cofactors within its size range and for
+ * at most its time budget, and the first divisor found wins. The last
+ * stage that applies runs until the overall deadline.
+ *
+ * The schedule is read from the properties file given by
+ * -Dfactor.strategy=FILE, see strategy.properties:
+ *
+ *   stages = rho, pm1, ecm      stage names, in order
+ *   rho.engine = rho            rho, pm1, pp1, ecm or qs, default the name
+ *   rho.minBits = 64            smallest cofactor, default 0
+ *   rho.maxBits = 200           largest cofactor, default unlimited
+ *   rho.budget = 2000           milliseconds, 0 or unset for no limit
+ *   pm1.b1 = 20000              stage 1 bound of pm1 and pp1
+ *
+ * Without a file -Dfactor.method=rho|ecm|qs picks p - 1 and p + 1
+ * followed by that method alone, and without either the built-in
+ * schedule below is used.
+ *
+ * Cofactors below 2^64 bypass the schedule and go to SmallFactor.
+ */
+public class Strategy {
+
+    // Keep in step with strategy.properties
+    private static final String DEFAULT =
+          "stages = rho, pm1, pp1, ecm, qs\n"
+        + "rho.budget = 2000\n"
+        + "pm1.minBits = 64\n"
+        + "pm1.b1 = 20000\n"
+        + "pp1.minBits = 64\n"
+        + "pp1.b1 = 20000\n"
+        + "ecm.minBits = 64\n"
+        + "ecm.budget = 60000\n"
+        + "qs.minBits = 100\n"
+        + "qs.maxBits = 330\n";
+
+    // Stage 2 of pm1 and pp1 goes up to B2_FACTOR * b1
+    private static final int B2_FACTOR = 100;
+
+    private static final class Stage {
+        final String name;
+        final String engine;
+        final int minBits, maxBits;
+        final long budget; // Nanoseconds, 0 for no limit
+        final int b1;
+
+        Stage(String name, Properties props) {
+            this.name = name;
+            engine = props.getProperty(name + ".engine", name).trim();
+            minBits = Integer.parseInt(props.getProperty(name + ".minBits", "0").trim());
+            maxBits = Integer.parseInt(props.getProperty(name + ".maxBits",
+                    String.valueOf(Integer.MAX_VALUE)).trim());
+            budget = Long.parseLong(props.getProperty(name + ".budget", "0").trim()) * 1000000L;
+            b1 = Integer.parseInt(props.getProperty(name + ".b1", "20000").trim());
+
+            if (!engine.matches("rho|pm1|pp1|ecm|qs"))
+                throw new IllegalArgumentException("Unknown engine for stage " + name + ": " + engine);
+        }
+
+        boolean appliesTo(int bits) {
+            return bits >= minBits && bits <= maxBits;
+        }
+
+        /**
+         * True for methods that always give the same answer on the same
+         * number, so need not be repeated on its divisors.
+         */
+        boolean deterministic() {
+            return engine.equals("pm1") || engine.equals("pp1");
+        }
+    }
+
+    private final List<Stage> stages = new ArrayList<Stage>();
+
+    /**
+     * Builds a schedule from the given properties.
+     */
+    public Strategy(Properties props) {
+        String list = props.getProperty("stages");
+        if (list == null) throw new IllegalArgumentException("No stages in strategy");
+
+        for (String name : list.split(",")) {
+            name = name.trim();
+            if (!name.isEmpty()) stages.add(new Stage(name, props));
+        }
+    }
+
+    /**
+     * Loads the schedule chosen by -Dfactor.strategy or -Dfactor.method,
+     * or the built-in one.
+     */
+    public static Strategy load() throws IOException {
+        String file = System.getProperty("factor.strategy");
+        String method = System.getProperty("factor.method");
+
+        Properties props = new Properties();
+        if (file != null) {
+            try (Reader in = new FileReader(file)) {
+                props.load(in);
+            }
+        } else if (method != null) {
+            props.load(new StringReader(DEFAULT));
+            props.setProperty("stages", "pm1, pp1, " + method);
+            props.remove(method + ".budget");
+            props.remove(method + ".minBits");
+            props.remove(method + ".maxBits");
+        } else {
+            props.load(new StringReader(DEFAULT));
+        }
+        return new Strategy(props);
+    }
+
+    /**
+     * Tries the stages that apply to n in order until one finds a
+     * non-trivial divisor, and returns it with the stage that found it.
+     * Returns null if the deadline passed first. Stages set in done are
+     * skipped, and deterministic stages that ran are added to it, so the
+     * caller can pass it on to the divisors.
+     */
+    public Divisor split(BigInteger n, Deadline deadline, BitSet done) {
+        int bits = n.bitLength();
+        if (bits <= SmallFactor.MAX_BITS) {
+            long start = System.nanoTime();
+            Divisor d = SmallFactor.split(n.longValue(), deadline);
+            if (Metrics.ENABLED) Metrics.stageTime("word", System.nanoTime() - start);
+            return d;
+        }
+
+        int last = -1;
+        for (int i=0; i<stages.size(); ++i) {
+            if (!done.get(i) && stages.get(i).appliesTo(bits)) last = i;
+        }
+
+        for (int i=0; i<=last; ++i) {
+            Stage stage = stages.get(i);
+            if (done.get(i) || !stage.appliesTo(bits)) continue;
+
+            Deadline stageDeadline = i != last && stage.budget > 0
+                ? deadline.within(stage.budget) : deadline;
+
+            long start = System.nanoTime();
+            Divisor d = run(stage, n, stageDeadline);
+            if (Metrics.ENABLED) Metrics.stageTime(stage.name, System.nanoTime() - start);
+
+            // A p - 1 divisor holds every factor p - 1 can find, but p + 1
+            // may have stopped before trying all its seeds
+            if (stage.deterministic() && (d == null || stage.engine.equals("pm1"))) done.set(i);
+
+            if (d != null) return d;
+            if (deadline.expired()) return null;
+        }
+
+        // Only quick stages applied, keep walking until the deadline
+        long start = System.nanoTime();
+        BigInteger d = PollardRho.pollardRhoParallel(n, deadline);
+        if (Metrics.ENABLED) Metrics.stageTime("rho", System.nanoTime() - start);
+        return isDivisor(d, n) ? new Divisor(d, "rho") : null;
+    }
+
+    /**
+     * Runs one stage, returning a non-trivial divisor of n or null.
+     */
+    private static Divisor run(Stage stage, BigInteger n, Deadline deadline) {
+        BigInteger d;
+        switch (stage.engine) {
+            case "pm1":
+                return PMinusOne.pMinusOne(n, stage.b1, (long) stage.b1 * B2_FACTOR, deadline);
+            case "pp1":
+                return PPlusOne.pPlusOne(n, stage.b1, (long) stage.b1 * B2_FACTOR, deadline);
+            case "ecm":
+                d = ECM.ecm(n, deadline);
+                break;
+            case "qs":
+                d = QuadraticSieve.quadraticSieve(n, deadline);
+                break;
+            default:
+                d = PollardRho.pollardRhoParallel(n, deadline);
+                break;
+        }
+        return isDivisor(d, n) ? new Divisor(d, stage.name) : null;
+    }
+
+    private static boolean isDivisor(BigInteger d, BigInteger n) {
+        return d != null && !d.equals(BigInteger.ONE) && !d.equals(n);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Stage s : stages) {
+            if (sb.length() > 0) sb.append(" -> ");
+            sb.append(s.name);
+            if (!s.name.equals(s.engine)) sb.append('(').append(s.engine).append(')');
+            if (s.minBits > 0 || s.maxBits < Integer.MAX_VALUE)
+                sb.append(" [").append(s.minBits).append(", ")
+                  .append(s.maxBits == Integer.MAX_VALUE ? "" : String.valueOf(s.maxBits)).append(']');
+            if (s.budget > 0) sb.append(' ').append(s.budget / 1000000).append(" ms");
+        }
+        return sb.toString();
+    }
+}
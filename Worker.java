@@ -0,0 +1,121 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Factors the numbers a Coordinator hands out, one at a time, with every
+ * core of this JVM on each. A daemon thread sends a heartbeat every
+ * second meanwhile, so the coordinator can tell a long factorisation
+ * from a dead worker. See Coordinator for the protocol.
+ */
+public class Worker {
+
+    private static final boolean DEBUG = true;
+
+    private static final long HEARTBEAT_INTERVAL = 1000; // Milliseconds
+    private static final long WAIT_INTERVAL = 500; // Milliseconds before asking again after WAIT
+
+    private final Socket socket;
+    private final BufferedReader in;
+    private final PrintWriter out;
+    private final long timeLimit; // Per number, in nanoseconds
+
+    /**
+     * Connects to the coordinator at the given host and port.
+     */
+    public Worker(String host, int port, long timeLimit) throws IOException {
+        socket = new Socket(host, port);
+        in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+        out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII), true);
+        this.timeLimit = timeLimit;
+    }
+
+    /**
+     * Asks for numbers and sends back their factorisations until the
+     * coordinator says BYE or goes away.
+     */
+    public void run(String name) throws IOException {
+        Thread heartbeat = new Thread(() -> {
+            try {
+                while (!out.checkError()) {
+                    send("PING");
+                    Thread.sleep(HEARTBEAT_INTERVAL);
+                }
+            } catch (InterruptedException e) {
+                // Done
+            }
+        }, "heartbeat");
+        heartbeat.setDaemon(true);
+
+        send("HELLO " + name);
+        heartbeat.start();
+        try {
+            for (;;) {
+                send("NEXT");
+                String line = in.readLine();
+                if (line == null || line.equals("BYE")) return;
+
+                if (line.startsWith("WORK ")) {
+                    BigInteger n = new BigInteger(line.substring(5));
+                    if (DEBUG) System.err.println("=== Now factoring: " + n);
+                    report(Factor.factor(n, timeLimit));
+                } else if (line.startsWith("RESUME ")) {
+                    Factorisation partial = Factorisation.parseRecord(line.substring(7));
+                    if (partial == null) continue; // The next NEXT counts as a failed attempt
+                    if (DEBUG) System.err.println("=== Now resuming: " + partial.number());
+                    report(Factor.resume(partial, timeLimit));
+                } else if (line.equals("WAIT")) {
+                    Thread.sleep(WAIT_INTERVAL);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            heartbeat.interrupt();
+            socket.close();
+        }
+    }
+
+    private void report(Factorisation result) {
+        if (DEBUG) System.err.println("=== Factored in: " + Time.formatNanos(result.elapsedTime()));
+        send("RESULT " + result.toRecord());
+    }
+
+    /**
+     * Writes one line, never interleaved with the heartbeat.
+     */
+    private void send(String line) {
+        synchronized (out) {
+            out.println(line);
+        }
+    }
+
+    /**
+     * Works for the coordinator at [host] port, 127.0.0.1 if no host is
+     * given, until it has nothing left.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: Worker [host] <port>");
+            return;
+        }
+        String host = args.length == 2 ? args[0] : "127.0.0.1";
+        int port = Integer.parseInt(args[args.length - 1]);
+        String name = ManagementFactory.getRuntimeMXBean().getName(); // pid@host
+        SieveParams.get(); // Tune before taking work, not under its deadline
+
+        try {
+            new Worker(host, port, Factor.timeLimit).run(name);
+        } catch (IOException e) {
+            // The coordinator quits once the last result is in, which may be before our BYE
+            if (DEBUG) System.err.println("=== Coordinator gone: " + e.getMessage());
+        }
+        if (Metrics.ENABLED) System.err.println("=== Metrics: " + Metrics.summary());
+    }
+}
@@ -0,0 +1,105 @@
+package factoriser.bench;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Maths kernels against their BigInteger counterparts. Moduli are
+ * balanced semiprimes, as met by rho and the primality tests, and the
+ * other operands are random residues.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ArithmeticBenchmark {
+
+    @Param({"64", "128", "256", "512"})
+    public int bits;
+
+    private BigInteger[] moduli, residues, exponents;
+    private int i;
+
+    @Setup
+    public void setup() {
+        Random rand = Inputs.random(bits);
+        moduli = Inputs.balancedSemiprimes(bits, rand);
+        residues = Inputs.below(moduli, rand);
+        exponents = Inputs.randomOdd(bits, rand);
+    }
+
+    private int next() {
+        return i = (i + 1) & (Inputs.COUNT - 1);
+    }
+
+    @Benchmark
+    public BigInteger gcd() throws Throwable {
+        int k = next();
+        return (BigInteger) Kernels.GCD.invokeExact(moduli[k], residues[k]);
+    }
+
+    /**
+     * The Euclid loop Maths.gcd used before the Lehmer version, kept as a
+     * baseline.
+     */
+    @Benchmark
+    public BigInteger gcdEuclid() {
+        int k = next();
+        BigInteger a = moduli[k], b = residues[k];
+        while (b.signum() != 0) {
+            BigInteger c = b;
+            b = a.mod(b);
+            a = c;
+        }
+        return a;
+    }
+
+    @Benchmark
+    public BigInteger gcdJdk() {
+        int k = next();
+        return moduli[k].gcd(residues[k]);
+    }
+
+    @Benchmark
+    public BigInteger modPow() throws Throwable {
+        int k = next();
+        return (BigInteger) Kernels.MOD_POW.invokeExact(residues[k], exponents[k], moduli[k]);
+    }
+
+    @Benchmark
+    public BigInteger modPowVariant() throws Throwable {
+        int k = next();
+        return (BigInteger) Kernels.MOD_POW_VARIANT.invokeExact(residues[k], exponents[k], moduli[k]);
+    }
+
+    @Benchmark
+    public BigInteger modPowJdk() {
+        int k = next();
+        return residues[k].modPow(exponents[k], moduli[k]);
+    }
+
+    @Benchmark
+    public BigInteger sqrt() throws Throwable {
+        return (BigInteger) Kernels.SQRT.invokeExact(moduli[next()]);
+    }
+
+    @Benchmark
+    public BigInteger sqrtJdk() {
+        return moduli[next()].sqrt();
+    }
+}
@@ -0,0 +1,75 @@
+package factoriser.bench;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * Fixed-seed inputs, so every run and every revision measures the same
+ * numbers.
+ */
+final class Inputs {
+
+    static final long SEED = 0x5EED_FAC7L;
+
+    // Inputs per benchmark, cycled through so no single value is special
+    static final int COUNT = 64;
+
+    private Inputs() {
+    }
+
+    static Random random(int bits) {
+        return new Random(SEED + bits);
+    }
+
+    /**
+     * Uniformly random numbers with exactly the given number of bits.
+     */
+    static BigInteger[] randomOdd(int bits, Random rand) {
+        BigInteger[] xs = new BigInteger[COUNT];
+        for (int i=0; i<COUNT; ++i)
+            xs[i] = new BigInteger(bits, rand).setBit(bits - 1).setBit(0);
+        return xs;
+    }
+
+    static BigInteger[] below(BigInteger[] moduli, Random rand) {
+        BigInteger[] xs = new BigInteger[moduli.length];
+        for (int i=0; i<moduli.length; ++i)
+            xs[i] = new BigInteger(moduli[i].bitLength(), rand).mod(moduli[i]);
+        return xs;
+    }
+
+    static BigInteger[] primes(int bits, Random rand) {
+        BigInteger[] xs = new BigInteger[COUNT];
+        for (int i=0; i<COUNT; ++i) xs[i] = BigInteger.probablePrime(bits, rand);
+        return xs;
+    }
+
+    /**
+     * Products of two primes of half the given size each.
+     */
+    static BigInteger[] balancedSemiprimes(int bits, Random rand) {
+        BigInteger[] xs = new BigInteger[COUNT];
+        for (int i=0; i<COUNT; ++i) {
+            BigInteger n;
+            do {
+                n = BigInteger.probablePrime(bits / 2, rand)
+                        .multiply(BigInteger.probablePrime(bits - bits / 2, rand));
+            } while (n.bitLength() != bits);
+            xs[i] = n;
+        }
+        return xs;
+    }
+
+    /**
+     * The assignment numbers SSN * 10^60 + i for i = 1, 2, ...
+     */
+    static BigInteger[] ssn(int count) {
+        BigInteger[] xs = new BigInteger[count];
+        try {
+            for (int i=0; i<count; ++i) xs[i] = (BigInteger) Kernels.GET_SSN.invokeExact(i + 1, 0);
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+        return xs;
+    }
+}
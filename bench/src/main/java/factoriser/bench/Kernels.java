@@ -0,0 +1,61 @@
+package factoriser.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.math.BigInteger;
+
+/**
+ * Handles on the factoriser's kernels. The factoriser is in the default
+ * package, which cannot be imported from here, so its methods are looked
+ * up once by name. Static final handles are constants to the JIT, so
+ * invokeExact costs the same as a direct call.
+ */
+final class Kernels {
+
+    static final MethodHandle GCD = find("Maths", "gcd",
+            BigInteger.class, BigInteger.class, BigInteger.class);
+    static final MethodHandle MOD_POW = find("Maths", "modPow",
+            BigInteger.class, BigInteger.class, BigInteger.class, BigInteger.class);
+    static final MethodHandle MOD_POW_VARIANT = find("Maths", "modPowVariant",
+            BigInteger.class, BigInteger.class, BigInteger.class, BigInteger.class);
+    static final MethodHandle SQRT = find("Maths", "sqrt",
+            BigInteger.class, BigInteger.class);
+    static final MethodHandle IS_PROBABLE_PRIME = find("MillerRabin", "isProbablePrime",
+            boolean.class, BigInteger.class);
+    // (BigInteger n, long timeLimit), making a fresh Deadline per call
+    static final MethodHandle POLLARD_RHO = withDeadline(find("PollardRho", "pollardRho",
+            BigInteger.class, BigInteger.class, type("Deadline")));
+    static final MethodHandle GET_SSN = find("Factor", "getSSN",
+            BigInteger.class, int.class, int.class);
+
+    private Kernels() {
+    }
+
+    /**
+     * Replaces the trailing Deadline parameter of the handle by the time
+     * limit given to Deadline.after().
+     */
+    private static MethodHandle withDeadline(MethodHandle handle) {
+        Class<?> deadline = type("Deadline");
+        MethodHandle after = find("Deadline", "after", deadline, long.class);
+        return MethodHandles.filterArguments(handle, handle.type().parameterCount() - 1, after);
+    }
+
+    private static Class<?> type(String className) {
+        try {
+            return Class.forName(className);
+        } catch (ClassNotFoundException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle find(String className, String name, Class<?> returnType, Class<?>... params) {
+        try {
+            Class<?> owner = Class.forName(className);
+            return MethodHandles.publicLookup().findStatic(owner, name, MethodType.methodType(returnType, params));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+}
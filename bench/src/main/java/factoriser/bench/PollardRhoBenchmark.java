@@ -0,0 +1,50 @@
+package factoriser.bench;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Single-threaded Pollard rho on balanced semiprimes, the hardest case
+ * for it. The JDK has no factoring routine to compare with, so this is
+ * tracked against earlier runs only. Sizes stop where one walk takes
+ * seconds.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PollardRhoBenchmark {
+
+    private static final long TIME_LIMIT = TimeUnit.MINUTES.toNanos(1);
+
+    @Param({"48", "64", "80"})
+    public int bits;
+
+    private BigInteger[] numbers;
+    private int i;
+
+    @Setup
+    public void setup() {
+        numbers = Inputs.balancedSemiprimes(bits, Inputs.random(bits));
+    }
+
+    @Benchmark
+    public BigInteger pollardRho() throws Throwable {
+        i = (i + 1) & (Inputs.COUNT - 1);
+        return (BigInteger) Kernels.POLLARD_RHO.invokeExact(numbers[i], TIME_LIMIT);
+    }
+}
@@ -0,0 +1,61 @@
+package factoriser.bench;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * MillerRabin.isProbablePrime against BigInteger.isProbablePrime. Primes
+ * take every round of the test, semiprimes show how fast composites with
+ * no small factors are rejected.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PrimalityBenchmark {
+
+    // Error below 2^-100, the bound the factoriser used to test with
+    private static final int CERTAINTY = 100;
+
+    @Param({"64", "128", "256", "512"})
+    public int bits;
+
+    @Param({"prime", "semiprime"})
+    public String kind;
+
+    private BigInteger[] numbers;
+    private int i;
+
+    @Setup
+    public void setup() {
+        Random rand = Inputs.random(bits);
+        numbers = kind.equals("prime") ? Inputs.primes(bits, rand) : Inputs.balancedSemiprimes(bits, rand);
+    }
+
+    @Benchmark
+    public boolean millerRabin() throws Throwable {
+        i = (i + 1) & (Inputs.COUNT - 1);
+        return (boolean) Kernels.IS_PROBABLE_PRIME.invokeExact(numbers[i]);
+    }
+
+    @Benchmark
+    public boolean jdk() {
+        i = (i + 1) & (Inputs.COUNT - 1);
+        return numbers[i].isProbablePrime(CERTAINTY);
+    }
+}
@@ -0,0 +1,79 @@
+package factoriser.bench;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The kernels on the numbers the factoriser is actually run on, the
+ * 230-bit getSSN(i, 0) values.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SsnBenchmark {
+
+    private BigInteger[] numbers, residues, exponents;
+    private int i;
+
+    @Setup
+    public void setup() {
+        Random rand = Inputs.random(0);
+        numbers = Inputs.ssn(Inputs.COUNT);
+        residues = Inputs.below(numbers, rand);
+        exponents = new BigInteger[Inputs.COUNT];
+        for (int k=0; k<Inputs.COUNT; ++k) exponents[k] = numbers[k].subtract(BigInteger.ONE);
+    }
+
+    private int next() {
+        return i = (i + 1) & (Inputs.COUNT - 1);
+    }
+
+    @Benchmark
+    public BigInteger gcd() throws Throwable {
+        int k = next();
+        return (BigInteger) Kernels.GCD.invokeExact(numbers[k], residues[k]);
+    }
+
+    @Benchmark
+    public BigInteger gcdJdk() {
+        int k = next();
+        return numbers[k].gcd(residues[k]);
+    }
+
+    @Benchmark
+    public BigInteger modPow() throws Throwable {
+        int k = next();
+        return (BigInteger) Kernels.MOD_POW.invokeExact(residues[k], exponents[k], numbers[k]);
+    }
+
+    @Benchmark
+    public BigInteger modPowJdk() {
+        int k = next();
+        return residues[k].modPow(exponents[k], numbers[k]);
+    }
+
+    @Benchmark
+    public boolean millerRabin() throws Throwable {
+        return (boolean) Kernels.IS_PROBABLE_PRIME.invokeExact(numbers[next()]);
+    }
+
+    @Benchmark
+    public boolean isProbablePrimeJdk() {
+        return numbers[next()].isProbablePrime(100);
+    }
+}
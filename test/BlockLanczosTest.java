@@ -0,0 +1,60 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks that the dependencies BlockLanczos returns sum to zero mod 2,
+ * on sieve-like matrices small enough for Gaussian elimination and large
+ * enough for block Lanczos.
+ */
+public class BlockLanczosTest {
+
+    public static void main(String[] args) {
+        run();
+        System.out.println(Check.checks() + " checks, " + Check.failures() + " failed");
+    }
+
+    static void run() {
+        Random rand = new Random(6);
+        check(randomMatrix(200, 260, rand), 200, "Gaussian elimination");
+        check(randomMatrix(3000, 3100, rand), 3000, "block Lanczos");
+    }
+
+    /**
+     * Columns of 10 to 25 distinct rows, low rows being far more common,
+     * like small primes in sieve relations.
+     */
+    private static int[][] randomMatrix(int nrows, int ncols, Random rand) {
+        int[][] columns = new int[ncols][];
+        for (int c=0; c<ncols; ++c) {
+            int[] col = new int[10 + rand.nextInt(16)];
+            int count = 0;
+            while (count < col.length) {
+                int r = (int) Math.min(nrows - 1, Math.exp(rand.nextDouble() * Math.log(nrows)) - 1);
+                boolean seen = false;
+                for (int k=0; k<count; ++k) seen |= col[k] == r;
+                if (!seen) col[count++] = r;
+            }
+            Arrays.sort(col);
+            columns[c] = col;
+        }
+        return columns;
+    }
+
+    private static void check(int[][] columns, int nrows, String what) {
+        long[] deps = BlockLanczos.nullSpace(columns, nrows);
+        Check.equal(columns.length, deps.length, what + ": one word per column");
+
+        long used = 0;
+        for (long w : deps) used |= w;
+        Check.isTrue(used != 0, what + ": finds dependencies");
+
+        // Each row must be hit an even number of times by every dependency
+        long[] sums = new long[nrows];
+        for (int c=0; c<columns.length; ++c) {
+            for (int r : columns[c]) sums[r] ^= deps[c];
+        }
+        long odd = 0;
+        for (long s : sums) odd |= s;
+        Check.equal(0L, odd, what + ": rows left odd by the dependencies, as bits");
+    }
+}
@@ -0,0 +1,32 @@
+/**
+ * The assertions of the tests in this directory, which are plain
+ * programs since the tree has no test framework. A failed check is
+ * printed and counted rather than thrown, so one run reports them all.
+ */
+public class Check {
+
+    private static int checks, failures;
+
+    private Check() {
+    }
+
+    public static void isTrue(boolean condition, String what) {
+        ++checks;
+        if (condition) return;
+        ++failures;
+        System.out.println("FAILED: " + what);
+    }
+
+    public static void equal(Object expected, Object actual, String what) {
+        isTrue(expected == null ? actual == null : expected.equals(actual),
+                what + ": expected " + expected + ", got " + actual);
+    }
+
+    public static int checks() {
+        return checks;
+    }
+
+    public static int failures() {
+        return failures;
+    }
+}
@@ -0,0 +1,62 @@
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+/**
+ * Checks that the coordinator only accepts results that multiply back to
+ * their number with prime factors, and hands the number out again when a
+ * worker sends a wrong one.
+ */
+public class CoordinatorTest {
+
+    public static void main(String[] args) throws Exception {
+        run();
+        System.out.println(Check.checks() + " checks, " + Check.failures() + " failed");
+    }
+
+    static void run() throws Exception {
+        Check.isTrue(Coordinator.isValid(Factorisation.parseRecord("1207 C 17^1 71^1")), "17 * 71 is valid");
+        Check.isTrue(Coordinator.isValid(Factorisation.parseRecord("2023 P 7^1 / 289")), "7 with 289 left is valid");
+        Check.isTrue(!Coordinator.isValid(Factorisation.parseRecord("1207 C 17^1")), "17 alone is wrong");
+        Check.isTrue(!Coordinator.isValid(Factorisation.parseRecord("1207 C 1207^1")), "1207 is not prime");
+        Check.isTrue(!Coordinator.isValid(Factorisation.parseRecord("1207 C 1^1 17^1 71^1")), "1 is not prime");
+        Check.isTrue(!Coordinator.isValid(Factorisation.parseRecord("1207 C 17^-1 71^1")), "negative exponent");
+        Check.isTrue(!Coordinator.isValid(Factorisation.parseRecord("1207 P 17^1 / 1 71")), "cofactor 1");
+
+        Coordinator coordinator = new Coordinator(Collections.singletonList(BigInteger.valueOf(1207)),
+                InetAddress.getLoopbackAddress(), 0, null);
+        Thread server = new Thread(() -> {
+            try {
+                coordinator.run();
+            } catch (Exception e) {
+                Check.isTrue(false, "coordinator failed: " + e);
+            }
+        });
+        server.setDaemon(true);
+        server.start();
+
+        try (Socket s = new Socket(InetAddress.getLoopbackAddress(), coordinator.port());
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII));
+             PrintWriter out = new PrintWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.US_ASCII), true)) {
+            out.println("HELLO test");
+            for (String wrong : new String[] {"1207 C 3^1", "1207 C 1207^1"}) {
+                out.println("NEXT");
+                Check.equal("WORK 1207", in.readLine(), "handed out before RESULT " + wrong);
+                out.println("RESULT " + wrong);
+            }
+            out.println("NEXT");
+            Check.equal("WORK 1207", in.readLine(), "handed out after two wrong results");
+            out.println("RESULT 1207 C 17^1 71^1");
+            out.println("NEXT");
+            Check.equal("BYE", in.readLine(), "done after the right result");
+        }
+        server.join(5000);
+        Check.isTrue(!server.isAlive(), "coordinator stopped");
+    }
+}
@@ -0,0 +1,52 @@
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * Checks that with one ECM thread, as BatchFactor sets, concurrent
+ * callers run their curves side by side rather than queueing behind one
+ * another in a shared pool.
+ */
+public class EcmConcurrencyTest {
+
+    private static final long LONG_RUN = 60000000000L; // Nanoseconds, cancelled long before
+    private static final long SHORT_RUN = 20000000000L;
+
+    // Alone the small factor takes well under 0.1 s, queued behind the
+    // other caller's level of curves it took seconds
+    private static final long MAX_WAIT = 1000000000L;
+
+    public static void main(String[] args) throws InterruptedException {
+        run();
+        System.out.println(Check.checks() + " checks, " + Check.failures() + " failed");
+    }
+
+    static void run() throws InterruptedException {
+        Random rand = new Random(9);
+        ECM.setThreads(1);
+        try {
+            // Two 30-digit primes, far beyond the curves run here, so this
+            // caller keeps working at ever higher levels
+            BigInteger hard = BigInteger.probablePrime(100, rand).multiply(BigInteger.probablePrime(100, rand));
+            Deadline hardDeadline = Deadline.after(LONG_RUN);
+            Thread busy = new Thread(() -> ECM.ecm(hard, hardDeadline), "busy ecm");
+            busy.start();
+            Thread.sleep(3000); // Into the levels of hundreds of curves, seconds each
+
+            // A 10-digit factor takes a few curves of the first level
+            BigInteger p = BigInteger.probablePrime(33, rand);
+            BigInteger easy = p.multiply(BigInteger.probablePrime(100, rand));
+            long start = System.nanoTime();
+            BigInteger d = ECM.ecm(easy, Deadline.after(SHORT_RUN));
+            long elapsed = System.nanoTime() - start;
+
+            Check.equal(p, d, "factor found next to a busy caller");
+            Check.isTrue(busy.isAlive(), "busy caller still running meanwhile");
+            Check.isTrue(elapsed < MAX_WAIT, "factor found in " + Time.formatNanos(elapsed));
+
+            hardDeadline.cancel();
+            busy.join();
+        } finally {
+            ECM.setThreads(Runtime.getRuntime().availableProcessors());
+        }
+    }
+}
@@ -0,0 +1,40 @@
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * Checks Lehmer's gcd and the binary gcd on words against BigInteger.
+ */
+public class GcdTest {
+
+    public static void main(String[] args) {
+        run();
+        System.out.println(Check.checks() + " checks, " + Check.failures() + " failed");
+    }
+
+    static void run() {
+        Random rand = new Random(12);
+        for (int i=0; i<2000; ++i) {
+            BigInteger common = new BigInteger(rand.nextInt(300), rand);
+            BigInteger x = new BigInteger(rand.nextInt(3000), rand).multiply(common);
+            BigInteger y = new BigInteger(rand.nextInt(3000), rand).multiply(common);
+            Check.equal(x.gcd(y), Maths.gcd(x, y), "gcd(" + x + ", " + y + ")");
+        }
+
+        BigInteger big = BigInteger.ONE.shiftLeft(4000).subtract(BigInteger.ONE);
+        Check.equal(big, Maths.gcd(big, BigInteger.ZERO), "gcd(x, 0)");
+        Check.equal(big, Maths.gcd(BigInteger.ZERO, big), "gcd(0, x)");
+        Check.equal(big, Maths.gcd(big, big), "gcd(x, x)");
+        Check.equal(BigInteger.ONE, Maths.gcd(big, BigInteger.ONE.shiftLeft(3999)), "gcd(2^4000 - 1, 2^3999)");
+
+        for (int i=0; i<2000; ++i) {
+            long u = rand.nextLong() >>> rand.nextInt(64);
+            long v = rand.nextLong() >>> rand.nextInt(64);
+            BigInteger expected = unsigned(u).gcd(unsigned(v));
+            Check.equal(expected, unsigned(Gcd.binaryGcd(u, v)), "binaryGcd(" + u + ", " + v + ")");
+        }
+    }
+
+    private static BigInteger unsigned(long x) {
+        return new BigInteger(Long.toUnsignedString(x));
+    }
+}
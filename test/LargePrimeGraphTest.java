@@ -0,0 +1,49 @@
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Checks that every cycle LargePrimeGraph reports combines partial
+ * relations into a square: each prime on it must occur an even number of
+ * times among its edges, 1 excepted.
+ */
+public class LargePrimeGraphTest {
+
+    public static void main(String[] args) {
+        run();
+        System.out.println(Check.checks() + " checks, " + Check.failures() + " failed");
+    }
+
+    static void run() {
+        Random rand = new Random(22);
+        long[] primes = new long[3000];
+        for (int i=0; i<primes.length; ++i) primes[i] = BigInteger.probablePrime(24, rand).longValue();
+
+        LargePrimeGraph graph = new LargePrimeGraph();
+        List<long[]> edges = new ArrayList<long[]>();
+        int cycles = 0;
+        for (int label=0; label<6000; ++label) {
+            long p1 = primes[rand.nextInt(primes.length)];
+            long p2 = rand.nextInt(3) == 0 ? 1 : primes[rand.nextInt(primes.length)];
+            if (p1 == p2) continue;
+            edges.add(new long[] {p1, p2});
+
+            int[] cycle = graph.add(p1, p2, edges.size() - 1);
+            if (cycle == null) continue;
+            ++cycles;
+
+            Map<Long, Integer> counts = new HashMap<Long, Integer>();
+            for (int e : cycle) {
+                for (long p : edges.get(e)) counts.merge(p, 1, Integer::sum);
+            }
+            boolean even = true;
+            for (Map.Entry<Long, Integer> entry : counts.entrySet())
+                even &= entry.getKey() == 1 || entry.getValue() % 2 == 0;
+            Check.isTrue(even, "cycle closed by edge " + (edges.size() - 1) + " is not a square");
+        }
+        Check.isTrue(cycles > 0, "the random graph has cycles");
+    }
+}
@@ -0,0 +1,45 @@
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * Checks Maths.modPow against BigInteger, on both sides of the one-word
+ * limit and for even moduli.
+ */
+public class ModPowTest {
+
+    private static final int[] BITS = {2, 31, 32, 33, 62, 63, 64, 65, 127, 128, 129, 256, 521};
+
+    public static void main(String[] args) {
+        run();
+        System.out.println(Check.checks() + " checks, " + Check.failures() + " failed");
+    }
+
+    static void run() {
+        Random rand = new Random(13);
+        for (int bits : BITS) {
+            for (int i=0; i<20; ++i) {
+                BigInteger mod = new BigInteger(bits, rand).setBit(bits - 1);
+                if (i % 2 == 0) mod = mod.setBit(0); // Odd and even moduli take different paths
+                if (i == 0) mod = BigInteger.ONE.shiftLeft(bits).subtract(BigInteger.ONE); // All bits set
+                BigInteger base = new BigInteger(bits + 8, rand); // May exceed mod
+                BigInteger exp = new BigInteger(1 + rand.nextInt(2 * bits), rand);
+                Check.equal(base.modPow(exp, mod), Maths.modPow(base, exp, mod),
+                        "modPow(" + base + ", " + exp + ", " + mod + ")");
+            }
+
+            BigInteger odd = new BigInteger(bits, rand).setBit(bits - 1).setBit(0);
+            BigInteger[] bases = new BigInteger[5];
+            for (int j=0; j<bases.length; ++j) bases[j] = new BigInteger(bits, rand).mod(odd);
+            BigInteger exp = new BigInteger(bits, rand);
+            BigInteger[] res = Maths.modPow(bases, exp, odd);
+            for (int j=0; j<bases.length; ++j)
+                Check.equal(bases[j].modPow(exp, odd), res[j], "batch modPow mod " + odd);
+        }
+
+        BigInteger seven = BigInteger.valueOf(7);
+        Check.equal(BigInteger.ONE, Maths.modPow(seven, BigInteger.ZERO, BigInteger.valueOf(10)), "x^0");
+        Check.equal(BigInteger.ONE, Maths.modPow(seven, BigInteger.ZERO, BigInteger.valueOf(11)), "x^0 odd");
+        Check.equal(BigInteger.ZERO, Maths.modPow(seven, seven, BigInteger.ONE), "mod 1");
+        Check.equal(BigInteger.ZERO, Maths.modPow(BigInteger.ZERO, seven, BigInteger.valueOf(11)), "0^x");
+    }
+}
@@ -0,0 +1,50 @@
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * Checks Montgomery arithmetic on long[] limbs against BigInteger.
+ */
+public class MontgomeryTest {
+
+    // Modulus sizes in bits, around the 64-bit limb boundaries
+    private static final int[] BITS = {3, 31, 32, 33, 63, 64, 65, 127, 128, 129, 192, 255, 256, 257, 521, 1024};
+
+    public static void main(String[] args) {
+        run();
+        System.out.println(Check.checks() + " checks, " + Check.failures() + " failed");
+    }
+
+    static void run() {
+        Random rand = new Random(2);
+        for (int bits : BITS) {
+            for (int i=0; i<20; ++i) {
+                BigInteger n = new BigInteger(bits, rand).setBit(bits - 1).setBit(0);
+                if (i == 0) n = BigInteger.ONE.shiftLeft(bits).subtract(BigInteger.ONE); // All limbs full
+                BigInteger x = new BigInteger(bits, rand).mod(n);
+                BigInteger y = new BigInteger(bits, rand).mod(n);
+
+                Montgomery mont = new Montgomery(n);
+                long[] a = mont.newElement(), b = mont.newElement(), out = mont.newElement();
+                mont.toMontgomery(x, a);
+                mont.toMontgomery(y, b);
+                Check.equal(x, mont.fromMontgomery(a), "Montgomery round trip mod " + n);
+
+                mont.multiply(a, b, out);
+                Check.equal(x.multiply(y).mod(n), mont.fromMontgomery(out), x + " * " + y + " mod " + n);
+                mont.square(a, out);
+                Check.equal(x.multiply(x).mod(n), mont.fromMontgomery(out), x + "^2 mod " + n);
+                mont.add(a, b, out);
+                Check.equal(x.add(y).mod(n), mont.fromMontgomery(out), x + " + " + y + " mod " + n);
+                mont.subtractMod(a, b, out);
+                Check.equal(x.subtract(y).mod(n), mont.fromMontgomery(out), x + " - " + y + " mod " + n);
+
+                BigInteger e = new BigInteger(bits, rand);
+                mont.pow(a, e, out);
+                Check.equal(x.modPow(e, n), mont.fromMontgomery(out), x + "^" + e + " mod " + n);
+
+                mont.multiply(a, b, a); // out may alias an operand
+                Check.equal(x.multiply(y).mod(n), mont.fromMontgomery(a), "aliased multiply mod " + n);
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * Checks MillerRabin.isProbablePrime against BigInteger, and on
+ * composites that fool weaker tests.
+ */
+public class PrimalityTest {
+
+    private static final int[] BITS = {8, 31, 32, 33, 63, 64, 65, 127, 128, 129, 192, 256, 521, 1024};
+
+    // Carmichael numbers, strong pseudoprimes to the first bases and a
+    // strong Lucas pseudoprime
+    private static final long[] HARD_COMPOSITES = {
+        561, 1105, 1729, 2465, 2821, 6601, 8911, 2047, 3277, 4033, 4681, 8321,
+        1373653, 25326001, 3215031751L, 2152302898747L, 3474749660383L,
+        341550071728321L, 3825123056546413051L, 5459
+    };
+
+    public static void main(String[] args) {
+        run();
+        System.out.println(Check.checks() + " checks, " + Check.failures() + " failed");
+    }
+
+    static void run() {
+        Random rand = new Random(8);
+        for (int n=0; n<20000; ++n) {
+            BigInteger x = BigInteger.valueOf(n);
+            Check.equal(x.isProbablePrime(64), MillerRabin.isProbablePrime(x), "isProbablePrime(" + n + ")");
+        }
+
+        for (long n : HARD_COMPOSITES)
+            Check.isTrue(!MillerRabin.isProbablePrime(BigInteger.valueOf(n)), n + " is composite");
+
+        for (int bits : BITS) {
+            for (int i=0; i<20; ++i) {
+                BigInteger p = BigInteger.probablePrime(bits, rand);
+                BigInteger q = BigInteger.probablePrime(bits, rand);
+                Check.isTrue(MillerRabin.isProbablePrime(p), p + " is prime");
+                Check.isTrue(!MillerRabin.isProbablePrime(p.multiply(q)), p + " * " + q + " is composite");
+                Check.isTrue(!MillerRabin.isProbablePrime(p.multiply(p)), p + "^2 is composite");
+
+                BigInteger x = new BigInteger(bits, rand);
+                Check.equal(x.isProbablePrime(64), MillerRabin.isProbablePrime(x), "isProbablePrime(" + x + ")");
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * Checks ProductTree.smoothParts against trial division.
+ */
+public class ProductTreeTest {
+
+    public static void main(String[] args) {
+        run();
+        System.out.println(Check.checks() + " checks, " + Check.failures() + " failed");
+    }
+
+    static void run() {
+        Random rand = new Random(21);
+        int bound = 1000;
+        BigInteger[] numbers = new BigInteger[300];
+        for (int i=0; i<numbers.length; ++i) {
+            BigInteger x = BigInteger.ONE;
+            for (int j=rand.nextInt(12); j>0; --j) x = x.multiply(BigInteger.valueOf(2 + rand.nextInt(bound - 1)));
+            if (rand.nextBoolean()) x = x.multiply(BigInteger.probablePrime(20 + rand.nextInt(60), rand));
+            numbers[i] = x;
+        }
+
+        BigInteger[] parts = ProductTree.smoothParts(numbers, bound);
+        for (int i=0; i<numbers.length; ++i) {
+            BigInteger smooth = BigInteger.ONE;
+            BigInteger x = numbers[i];
+            for (int p : Primes.upTo(bound)) {
+                BigInteger bp = BigInteger.valueOf(p);
+                while (x.mod(bp).signum() == 0) {
+                    x = x.divide(bp);
+                    smooth = smooth.multiply(bp);
+                }
+            }
+            Check.equal(smooth, parts[i], "smooth part of " + numbers[i]);
+        }
+    }
+}
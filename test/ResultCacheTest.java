@@ -0,0 +1,92 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Checks that ResultCache records survive closing and reopening, with a
+ * lost index and with a record cut short by a crash.
+ */
+public class ResultCacheTest {
+
+    public static void main(String[] args) throws IOException {
+        run();
+        System.out.println(Check.checks() + " checks, " + Check.failures() + " failed");
+    }
+
+    static void run() throws IOException {
+        File dir = Files.createTempDirectory("resultcache").toFile();
+        try {
+            reopen(dir);
+        } finally {
+            for (File f : dir.listFiles()) f.delete();
+            dir.delete();
+        }
+    }
+
+    private static void reopen(File dir) throws IOException {
+        // More records than the initial index holds, so it grows
+        ResultCache cache = new ResultCache(dir);
+        for (int i=2; i<3000; ++i) cache.put(factorise(i));
+        Factorisation partial = new Factorisation(BigInteger.valueOf(2 * 1000003L * 1000033L), 0);
+        partial.add(BigInteger.TWO, 1, "trial");
+        partial.addUnfactored(BigInteger.valueOf(1000003L * 1000033L));
+        cache.put(partial);
+        cache.put(factorise(12)); // Replaces the first record of 12
+        cache.close();
+
+        cache = new ResultCache(dir);
+        checkAll(cache, "after reopening");
+        Check.equal(partial.toRecord(), cache.get(partial.number()).toRecord(), "partial result after reopening");
+        Check.equal(null, cache.get(BigInteger.valueOf(3000)), "number never stored");
+        cache.close();
+
+        // The index is rebuilt from the log
+        new File(dir, "results.idx").delete();
+        cache = new ResultCache(dir);
+        checkAll(cache, "after losing the index");
+        cache.close();
+
+        // A record without its newline was cut short and is dropped
+        File log = new File(dir, "results.log");
+        long length = log.length();
+        try (RandomAccessFile raf = new RandomAccessFile(log, "rw")) {
+            raf.seek(length);
+            raf.write("5000 C 2^3:trial 5^".getBytes(StandardCharsets.US_ASCII));
+        }
+        cache = new ResultCache(dir);
+        Check.equal(length, log.length(), "log length after a torn record");
+        Check.equal(null, cache.get(BigInteger.valueOf(5000)), "torn record");
+        checkAll(cache, "after a torn record");
+
+        cache.put(factorise(5000));
+        cache.close();
+        cache = new ResultCache(dir);
+        Check.equal(factorise(5000).toRecord(), cache.get(BigInteger.valueOf(5000)).toRecord(),
+                "record written after a torn one");
+        cache.close();
+    }
+
+    private static void checkAll(ResultCache cache, String when) throws IOException {
+        for (int i=2; i<3000; ++i) {
+            Factorisation stored = cache.get(BigInteger.valueOf(i));
+            Check.equal(factorise(i).toRecord(), stored == null ? null : stored.toRecord(), i + " " + when);
+        }
+    }
+
+    /**
+     * Returns the factorisation of n by trial division, with a method
+     * name holding a space as some real ones do.
+     */
+    private static Factorisation factorise(int n) {
+        Factorisation result = new Factorisation(BigInteger.valueOf(n), 0);
+        for (int p=2; n>1; ++p) {
+            int e = 0;
+            for (; n%p == 0; n/=p) ++e;
+            if (e > 0) result.add(BigInteger.valueOf(p), e, p % 3 == 0 ? "p-1 stage 1" : "trial");
+        }
+        return result;
+    }
+}
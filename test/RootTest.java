@@ -0,0 +1,36 @@
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * Checks Maths.root and Maths.perfectPower on random powers and their
+ * neighbours.
+ */
+public class RootTest {
+
+    public static void main(String[] args) {
+        run();
+        System.out.println(Check.checks() + " checks, " + Check.failures() + " failed");
+    }
+
+    static void run() {
+        Random rand = new Random(23);
+        for (int i=0; i<500; ++i) {
+            BigInteger x = new BigInteger(1 + rand.nextInt(2000), rand);
+            int k = 1 + rand.nextInt(40);
+            BigInteger r = Maths.root(x, k);
+            Check.isTrue(r.pow(k).compareTo(x) <= 0 && r.add(BigInteger.ONE).pow(k).compareTo(x) > 0,
+                    "root(" + x + ", " + k + ") = " + r);
+        }
+
+        for (int i=0; i<200; ++i) {
+            // From 3 up, since 2^3 + 1 = 3^2
+            BigInteger r = new BigInteger(2 + rand.nextInt(100), rand).add(BigInteger.valueOf(3));
+            int k = 2 + rand.nextInt(12);
+            int power = Maths.perfectPower(r.pow(k));
+            Check.isTrue(power % k == 0 && Maths.root(r.pow(k), power).pow(power).equals(r.pow(k)),
+                    "perfectPower(" + r + "^" + k + ") = " + power);
+            Check.equal(1, Maths.perfectPower(r.pow(k).add(BigInteger.ONE)), "perfectPower(" + r + "^" + k + " + 1)");
+        }
+        Check.equal(12, Maths.perfectPower(BigInteger.valueOf(3).pow(12)), "perfectPower(3^12)");
+    }
+}
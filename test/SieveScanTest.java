@@ -0,0 +1,39 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks the sieve scan in use, vector or not, and the scalar one
+ * against a plain loop over the block.
+ */
+public class SieveScanTest {
+
+    public static void main(String[] args) {
+        run();
+        System.out.println(Check.checks() + " checks, " + Check.failures() + " failed");
+    }
+
+    static void run() {
+        Random rand = new Random(25);
+        SieveScan scan = SieveScan.get();
+        SieveScan scalar = new SieveScan();
+        for (int i=0; i<200; ++i) {
+            int length = rand.nextInt(5000);
+            byte[] block = new byte[length + rand.nextInt(64)];
+            for (int j=0; j<block.length; ++j) block[j] = (byte) (rand.nextInt(4) == 0 ? rand.nextInt(256) : rand.nextInt(40));
+            int threshold = 1 + rand.nextInt(255);
+
+            List<Integer> expected = new ArrayList<Integer>();
+            for (int j=0; j<length; ++j) {
+                if ((block[j] & 0xFF) >= threshold) expected.add(j);
+            }
+            for (SieveScan s : new SieveScan[] {scan, scalar}) {
+                int[] hits = new int[length];
+                int count = s.scan(block, length, threshold, hits);
+                List<Integer> found = new ArrayList<Integer>();
+                for (int j=0; j<count; ++j) found.add(hits[j]);
+                Check.equal(expected, found, s.name() + " scan, threshold " + threshold);
+            }
+        }
+    }
+}
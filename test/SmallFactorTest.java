@@ -0,0 +1,67 @@
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * Checks SmallFactor on words read as unsigned, up to 2^64, against
+ * BigInteger.
+ */
+public class SmallFactorTest {
+
+    private static final long TIME_LIMIT = 10000000000L; // Nanoseconds, never reached when correct
+
+    // Carmichael numbers, strong pseudoprimes to the first bases and one
+    // close to 2^64
+    private static final long[] HARD_COMPOSITES = {
+        561, 1105, 1729, 2465, 2821, 6601, 8911, 2047, 3277, 4033, 4681, 8321,
+        1373653, 25326001, 3215031751L, 2152302898747L, 3474749660383L,
+        341550071728321L, 3825123056546413051L, 0xFFFFFFFFFFFFFFFFL
+    };
+
+    public static void main(String[] args) {
+        run();
+        System.out.println(Check.checks() + " checks, " + Check.failures() + " failed");
+    }
+
+    static void run() {
+        Random rand = new Random(19);
+        for (int bits=8; bits<=64; bits+=2) {
+            for (int i=0; i<10; ++i) {
+                long p = BigInteger.probablePrime(bits / 2, rand).longValue();
+                long q = BigInteger.probablePrime(bits - bits / 2, rand).longValue();
+                long n = p * q;
+                BigInteger big = BigInteger.valueOf(p).multiply(BigInteger.valueOf(q));
+                Check.equal(big, SmallFactor.toBigInteger(n), "toBigInteger(" + Long.toUnsignedString(n) + ")");
+
+                Divisor d = SmallFactor.split(n, Deadline.after(TIME_LIMIT));
+                Check.isTrue(d != null && (d.value().longValue() == p || d.value().longValue() == q),
+                        "SmallFactor.split(" + big + ") = " + d);
+                Check.isTrue(!SmallFactor.isPrime(n), big + " is composite");
+
+                long s = SmallFactor.squfof(n);
+                Check.isTrue(s == 0 || s == p || s == q, "squfof(" + big + ") = " + s);
+            }
+        }
+        Check.equal(65537L, SmallFactor.squfof(65537L * 65537), "squfof of a square");
+
+        for (int n=0; n<20000; ++n)
+            Check.equal(BigInteger.valueOf(n).isProbablePrime(64), SmallFactor.isPrime(n), "isPrime(" + n + ")");
+        for (long n : HARD_COMPOSITES)
+            Check.isTrue(!SmallFactor.isPrime(n), Long.toUnsignedString(n) + " is composite");
+
+        for (int bits=8; bits<=64; ++bits) {
+            for (int i=0; i<20; ++i) {
+                BigInteger p = BigInteger.probablePrime(bits, rand);
+                Check.isTrue(SmallFactor.isPrime(p.longValue()), p + " is prime");
+
+                BigInteger x = new BigInteger(bits, rand);
+                Check.equal(x.isProbablePrime(64), SmallFactor.isPrime(x.longValue()), "isPrime(" + x + ")");
+
+                BigInteger n = x.setBit(bits - 1).setBit(0);
+                BigInteger e = new BigInteger(bits, rand);
+                BigInteger base = new BigInteger(bits, rand).mod(n);
+                Check.equal(base.modPow(e, n), SmallFactor.toBigInteger(SmallFactor.modPow(base.longValue(), e, n.longValue())),
+                        base + "^" + e + " mod " + n);
+            }
+        }
+    }
+}
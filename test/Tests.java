@@ -0,0 +1,28 @@
+/**
+ * Runs every test and exits with status 1 if any check failed:
+ *
+ *   javac -d /tmp/tests *.java test/*.java && java -cp /tmp/tests Tests
+ *
+ * The inputs come from fixed seeds, so a failure repeats.
+ */
+public class Tests {
+
+    public static void main(String[] args) throws Exception {
+        MontgomeryTest.run();
+        BlockLanczosTest.run();
+        PrimalityTest.run();
+        EcmConcurrencyTest.run();
+        ResultCacheTest.run();
+        GcdTest.run();
+        ModPowTest.run();
+        SmallFactorTest.run();
+        ProductTreeTest.run();
+        LargePrimeGraphTest.run();
+        RootTest.run();
+        CoordinatorTest.run();
+        SieveScanTest.run();
+
+        System.out.println(Check.checks() + " checks, " + Check.failures() + " failed");
+        if (Check.failures() > 0) System.exit(1);
+    }
+}
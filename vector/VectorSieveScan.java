@@ -0,0 +1,41 @@
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SieveScan with one unsigned compare per SIMD register of bytes, 32 or
+ * 64 entries at a time on AVX2 or AVX-512. Needs the incubating
+ * jdk.incubator.vector module at compile and run time, see SieveScan.
+ */
+public class VectorSieveScan extends SieveScan {
+
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+    public VectorSieveScan() {
+        // Fail here rather than in the sieve if the module is missing
+        ByteVector.zero(SPECIES);
+    }
+
+    @Override
+    public String name() {
+        return "vector " + SPECIES.vectorBitSize() + " bit";
+    }
+
+    @Override
+    public int scan(byte[] block, int length, int threshold, int[] hits) {
+        byte t = (byte) threshold;
+        int count = 0;
+        int j = 0;
+        for (int bound = SPECIES.loopBound(length); j<bound; j+=SPECIES.length()) {
+            VectorMask<Byte> hit = ByteVector.fromArray(SPECIES, block, j).compare(VectorOperators.UNSIGNED_GE, t);
+            if (!hit.anyTrue()) continue; // Much cheaper than toLong(), and nearly always so
+            for (long bits = hit.toLong(); bits != 0; bits &= bits - 1)
+                hits[count++] = j + Long.numberOfTrailingZeros(bits);
+        }
+        for (; j<length; ++j) {
+            if ((block[j] & 0xFF) >= threshold) hits[count++] = j;
+        }
+        return count;
+    }
+}